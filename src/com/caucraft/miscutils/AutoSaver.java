@@ -0,0 +1,150 @@
+package com.caucraft.miscutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes a JsonConfig to a file in the background after it changes,
+ * coalescing changes so the file is written at most once per interval. A
+ * failed write is retried after a delay that doubles with each failure in a
+ * row, from one second up to a minute, however short the interval is. All
+ * AutoSavers share one daemon thread, and any that still have unwritten
+ * changes write them from a shutdown hook.
+ */
+final class AutoSaver implements Runnable {
+
+    private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Set<AutoSaver> active = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService executor;
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor ex = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JsonConfig-AutoSave");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            ex.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor = ex;
+            Runtime.getRuntime().addShutdownHook(new Thread("JsonConfig-AutoSave-Shutdown") {
+                @Override
+                public void run() {
+                    for (AutoSaver a : active) {
+                        a.write();
+                    }
+                }
+            });
+        }
+        return executor;
+    }
+
+    private final JsonConfig config;
+    private final File file;
+    private final long intervalNanos;
+    private final AtomicBoolean dirty;
+    private final AtomicBoolean scheduled;
+    private volatile long lastWrite;
+    /** The earliest time a write may be retried after a failed one. */
+    private volatile long retryAt;
+    /** The delay after the last failed write, or 0 if it succeeded. */
+    private long retryNanos;
+    private CompletableFuture<Void> next;
+
+    AutoSaver(JsonConfig config, File file, long intervalNanos) {
+        this.config = config;
+        this.file = file;
+        this.intervalNanos = Math.max(0, intervalNanos);
+        this.dirty = new AtomicBoolean();
+        this.scheduled = new AtomicBoolean();
+        this.lastWrite = System.nanoTime() - this.intervalNanos;
+        this.retryAt = lastWrite;
+        this.next = new CompletableFuture<>();
+        active.add(this);
+    }
+
+    boolean isDirty() {
+        return dirty.get();
+    }
+
+    void markDirty() {
+        dirty.set(true);
+        if (scheduled.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            long delay = Math.max(lastWrite + intervalNanos - now, retryAt - now);
+            executor().schedule(this, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> f;
+        synchronized (this) {
+            f = next;
+        }
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Stops this saver from being written on shutdown once its last changes
+     * are written.
+     */
+    CompletableFuture<Void> stop() {
+        CompletableFuture<Void> f = flush();
+        f.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable e) {
+                active.remove(AutoSaver.this);
+            }
+        });
+        return f;
+    }
+
+    @Override
+    public void run() {
+        scheduled.set(false);
+        write();
+    }
+
+    /**
+     * Writes the config if it has changed since the last write, and completes
+     * the future handed out by flush calls made before this started.
+     */
+    private synchronized void write() {
+        CompletableFuture<Void> done = next;
+        next = new CompletableFuture<>();
+        if (!dirty.getAndSet(false)) {
+            done.complete(null);
+            return;
+        }
+        try {
+            JsonConfig.write(config.snapshot(), file, false);
+            lastWrite = System.nanoTime();
+            retryNanos = 0;
+            done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            lastWrite = System.nanoTime();
+            retryNanos = retryNanos == 0 ? MIN_RETRY_NANOS : Math.min(retryNanos * 2, MAX_RETRY_NANOS);
+            retryAt = lastWrite + retryNanos;
+            markDirty();
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.caucraft.miscutils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Builds instances of a class from JSON objects. Binders are created once
+ * per class: the class is inspected with reflection a single time and its
+ * constructor and fields are turned into method handles, so binding an
+ * object afterwards is one pass over its members with no reflective lookups.
+ * <p>
+ * Plain classes need a no-argument constructor, which supplies the default
+ * value of every field that the JSON does not set. Non-static, non-transient,
+ * non-final fields are bound, including inherited ones. Records are bound
+ * through their canonical constructor, with defaults taken from a
+ * no-argument constructor if the record declares one and zero or null
+ * otherwise.
+ * <p>
+ * Members are matched by the field's @SerializedName, its name, or its name
+ * as the config's Gson naming policy writes it. Primitives, strings, enums
+ * and nested bindable classes are converted directly and a value of the
+ * wrong type leaves the default in place. Anything else (collections,
+ * arrays, maps) is handed to Gson.
+ */
+final class Binder<T> {
+
+    private static final Object NO_VALUE = new Object();
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final ClassValue<Binder<?>> binders = new ClassValue<Binder<?>>() {
+        @Override
+        protected Binder<?> computeValue(Class<?> type) {
+            return new Binder<>(type);
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static <T> Binder<T> of(Class<T> type) {
+        Binder<T> b = (Binder<T>) binders.get(type);
+        if (b.error != null) {
+            throw new IllegalArgumentException("Can not bind " + type.getName() + ": " + b.error);
+        }
+        return b;
+    }
+
+    private final Class<T> type;
+    private final Gson gson;
+    /** Why the class can not be bound, or null if it can. */
+    private final String error;
+    private final Map<String, Property> byName;
+    /** ()Object for plain classes, (Object[])Object for records. */
+    private final MethodHandle constructor;
+    /** Constructor arguments to use for members the JSON does not set, null for plain classes. */
+    private final Object[] recordDefaults;
+
+    private Binder(Class<T> type) {
+        this.type = type;
+        this.gson = JsonConfig.gson;
+        this.byName = new HashMap<>();
+        MethodHandle ctor = null;
+        Object[] defaults = null;
+        String err = null;
+        try {
+            if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                err = "not a concrete class";
+            } else if (isRecord(type)) {
+                Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+                Class<?>[] types = new Class<?>[components.length];
+                defaults = new Object[components.length];
+                Method[] accessors = new Method[components.length];
+                for (int i = 0; i < components.length; ++i) {
+                    Class<?> rc = components[i].getClass();
+                    String name = (String) rc.getMethod("getName").invoke(components[i]);
+                    types[i] = (Class<?>) rc.getMethod("getType").invoke(components[i]);
+                    Type generic = (Type) rc.getMethod("getGenericType").invoke(components[i]);
+                    accessors[i] = (Method) rc.getMethod("getAccessor").invoke(components[i]);
+                    defaults[i] = types[i].isPrimitive() ? Array.get(Array.newInstance(types[i], 1), 0) : null;
+                    addProperty(new Property(types[i], generic, null, i), type.getDeclaredField(name));
+                }
+                Constructor<T> canonical = type.getDeclaredConstructor(types);
+                canonical.setAccessible(true);
+                ctor = lookup.unreflectConstructor(canonical)
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+                Constructor<T> noArg = findNoArg(type);
+                if (noArg != null) {
+                    T def = noArg.newInstance();
+                    for (int i = 0; i < accessors.length; ++i) {
+                        accessors[i].setAccessible(true);
+                        defaults[i] = accessors[i].invoke(def);
+                    }
+                }
+            } else {
+                Constructor<T> noArg = findNoArg(type);
+                if (noArg == null) {
+                    err = "no no-argument constructor";
+                } else {
+                    ctor = lookup.unreflectConstructor(noArg).asType(MethodType.methodType(Object.class));
+                    List<Class<?>> hierarchy = new ArrayList<>();
+                    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                        hierarchy.add(0, c);
+                    }
+                    for (Class<?> c : hierarchy) {
+                        for (Field f : c.getDeclaredFields()) {
+                            int mod = f.getModifiers();
+                            if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || Modifier.isFinal(mod) || f.isSynthetic()) {
+                                continue;
+                            }
+                            f.setAccessible(true);
+                            MethodHandle setter = lookup.unreflectSetter(f)
+                                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                            addProperty(new Property(f.getType(), f.getGenericType(), setter, -1), f);
+                        }
+                    }
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            err = e.toString();
+        }
+        this.error = err;
+        this.constructor = ctor;
+        this.recordDefaults = defaults;
+    }
+
+    private static boolean isRecord(Class<?> type) {
+        Class<?> sup = type.getSuperclass();
+        return sup != null && sup.getName().equals("java.lang.Record");
+    }
+
+    private static <T> Constructor<T> findNoArg(Class<T> type) {
+        try {
+            Constructor<T> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            return c;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private void addProperty(Property p, Field f) {
+        SerializedName sn = f.getAnnotation(SerializedName.class);
+        if (sn != null) {
+            putName(sn.value(), p);
+            for (String alt : sn.alternate()) {
+                putName(alt, p);
+            }
+        } else {
+            putName(f.getName(), p);
+            putName(gson.fieldNamingStrategy().translateName(f), p);
+        }
+    }
+
+    private void putName(String name, Property p) {
+        if (!byName.containsKey(name)) {
+            byName.put(name, p);
+        }
+    }
+
+    /**
+     * @param e The object to bind, or anything else to get an instance with
+     * only default values.
+     */
+    T read(JsonElement e) {
+        JsonObject obj = e instanceof JsonObject ? (JsonObject) e : null;
+        try {
+            if (recordDefaults != null) {
+                Object[] args = recordDefaults.clone();
+                if (obj != null) {
+                    for (Map.Entry<String, JsonElement> ent : obj.entrySet()) {
+                        Property p = byName.get(ent.getKey());
+                        if (p != null) {
+                            Object v = p.convert(ent.getValue());
+                            if (v != NO_VALUE) {
+                                args[p.index] = v;
+                            }
+                        }
+                    }
+                }
+                return type.cast((Object) constructor.invokeExact(args));
+            }
+            Object instance = (Object) constructor.invokeExact();
+            if (obj != null) {
+                for (Map.Entry<String, JsonElement> ent : obj.entrySet()) {
+                    Property p = byName.get(ent.getKey());
+                    if (p != null) {
+                        Object v = p.convert(ent.getValue());
+                        if (v != NO_VALUE) {
+                            p.setter.invokeExact(instance, v);
+                        }
+                    }
+                }
+            }
+            return type.cast(instance);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Could not construct " + type.getName(), ex);
+        }
+    }
+
+    /**
+     * Converts a JSON value to type without throwing.
+     * @return The converted value, or NO_VALUE if e is null, JSON null, or
+     * can not be converted.
+     */
+    private Object convert(JsonElement e, Class<?> type, Type generic) {
+        if (e == null || e.isJsonNull()) {
+            return NO_VALUE;
+        }
+        if (type.isInstance(e)) {
+            return e;
+        }
+        if (e instanceof JsonPrimitive) {
+            Object v = convertPrimitive((JsonPrimitive) e, type);
+            if (v != null) {
+                return v;
+            }
+        } else if (e instanceof JsonObject && !type.getName().startsWith("java.")) {
+            Binder<?> b = binders.get(type);
+            if (b.error == null) {
+                return b.read(e);
+            }
+        }
+        if (type.isPrimitive() || type == String.class || Number.class.isAssignableFrom(type)) {
+            return NO_VALUE;
+        }
+        try {
+            Object v = gson.fromJson(e, generic);
+            return v != null ? v : NO_VALUE;
+        } catch (JsonParseException | IllegalStateException | NumberFormatException ex) {
+            return NO_VALUE;
+        }
+    }
+
+    /**
+     * Converts a primitive to a string, boolean, char, enum or number type.
+     * @return The converted value, or null if prim is not of a kind that
+     * converts to type.
+     */
+    static Object convertPrimitive(JsonPrimitive prim, Class<?> type) {
+        if (type == String.class) {
+            return prim.getAsString();
+        } else if (type == boolean.class || type == Boolean.class) {
+            return prim.isBoolean() ? prim.getAsBoolean() : null;
+        } else if (type == char.class || type == Character.class) {
+            String s = prim.isString() ? prim.getAsString() : null;
+            return s != null && s.length() == 1 ? s.charAt(0) : null;
+        } else if (type.isEnum()) {
+            if (prim.isString()) {
+                String s = prim.getAsString();
+                for (Object c : type.getEnumConstants()) {
+                    if (((Enum<?>) c).name().equals(s)) {
+                        return c;
+                    }
+                }
+            }
+            return null;
+        }
+        Number n = JsonConfig.toNumber(prim);
+        return n != null ? convertNumber(n, type) : null;
+    }
+
+    /**
+     * @return n as type, or null if type is not a number type.
+     */
+    static Object convertNumber(Number n, Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return n.intValue();
+        } else if (type == long.class || type == Long.class) {
+            return n.longValue();
+        } else if (type == double.class || type == Double.class) {
+            return n.doubleValue();
+        } else if (type == float.class || type == Float.class) {
+            return n.floatValue();
+        } else if (type == short.class || type == Short.class) {
+            return n.shortValue();
+        } else if (type == byte.class || type == Byte.class) {
+            return n.byteValue();
+        } else if (type == BigDecimal.class || type == Number.class) {
+            return JsonConfig.toBigDecimal(n);
+        } else if (type == BigInteger.class) {
+            if (n instanceof BigInteger) {
+                return n;
+            }
+            BigDecimal d = JsonConfig.toBigDecimal(n);
+            return d != null ? d.toBigInteger() : null;
+        }
+        return null;
+    }
+
+    private final class Property {
+
+        private final Class<?> type;
+        private final Type generic;
+        /** (Object,Object)void, null for record components. */
+        private final MethodHandle setter;
+        /** The record component index, -1 for fields. */
+        private final int index;
+
+        Property(Class<?> type, Type generic, MethodHandle setter, int index) {
+            this.type = type;
+            this.generic = generic;
+            this.setter = setter;
+            this.index = index;
+        }
+
+        Object convert(JsonElement e) {
+            return Binder.this.convert(e, type, generic);
+        }
+    }
+}
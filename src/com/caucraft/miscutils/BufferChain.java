@@ -1,20 +1,65 @@
 package com.caucraft.miscutils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BufferChain<T> {
 	
 	private ReentrantLock lock;
+	private Condition notEmpty;
+	private Condition notFull;
 	private List<T[]> chain;
 	private int array;
 	private int bindex;
 	private long startLen;
 	private long endLen;
+	private long capacity;
+	private int segmentCapacity;
+	private boolean releaseConsumed;
+	/**
+	 * The number and total length of the arrays at the start of the chain
+	 * that were added with addStart while read Ts are released, and so were
+	 * never nulled out.
+	 */
+	private int keptArrays;
+	private long keptLen;
+	private long retainLimit;
+	private int segmentShift;
 	
+	@SafeVarargs
 	BufferChain(T[]... chain) {
+		this(Long.MAX_VALUE, Integer.MAX_VALUE, chain);
+	}
+	
+	/**
+	 * Creates a bounded buffer. The bounds only apply to putEnd and offerEnd,
+	 * addEnd and addStart always succeed.
+	 * @param capacity The maximum number of unread Ts in the buffer.
+	 * @param segmentCapacity The maximum number of arrays holding unread Ts.
+	 * @param chain The initial arrays in the buffer, these may exceed the
+	 * bounds.
+	 */
+	@SafeVarargs
+	BufferChain(long capacity, int segmentCapacity, T[]... chain) {
+		if (capacity <= 0 || segmentCapacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive (capacity: " + capacity + ", segments: " + segmentCapacity + ")");
+		}
 		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+		this.capacity = capacity;
+		this.segmentCapacity = segmentCapacity;
+		this.retainLimit = Long.MAX_VALUE;
+		this.segmentShift = -1;
 		this.chain = new ArrayList<>(chain.length);
 		for (T[] ba : chain) {
 			if (ba.length != 0) {
@@ -24,14 +69,60 @@ public class BufferChain<T> {
 		}
 	}
 	
+	/**
+	 * Creates a buffer where every array except the first and last must be
+	 * exactly segmentSize long, and the first and last may be at most that
+	 * long. This lets get(long) and goTo find an index with a shift and a
+	 * mask instead of walking the arrays.
+	 * @param segmentSize The array length, must be a power of two.
+	 * @param chain The initial arrays in the buffer.
+	 * @return The new buffer.
+	 */
+	@SafeVarargs
+	static <T> BufferChain<T> withSegmentSize(int segmentSize, T[]... chain) {
+		if (segmentSize <= 0 || (segmentSize & segmentSize - 1) != 0) {
+			throw new IllegalArgumentException("Segment size must be a power of two: " + segmentSize);
+		}
+		BufferChain<T> bc = new BufferChain<>();
+		bc.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+		for (T[] ba : chain) {
+			bc.addEnd(ba);
+		}
+		return bc;
+	}
+	
+	public int getSegmentSize() {
+		return segmentShift < 0 ? -1 : 1 << segmentShift;
+	}
+	
+	private boolean fitsStart(int len) {
+		int size = chain.size();
+		return segmentShift < 0
+				|| len <= 1 << segmentShift && (size < 2 || chain.get(0).length == 1 << segmentShift);
+	}
+	
+	private boolean fitsEnd(int len) {
+		int size = chain.size();
+		return segmentShift < 0
+				|| len <= 1 << segmentShift && (size < 2 || chain.get(size - 1).length == 1 << segmentShift);
+	}
+	
 	public void addStart(T[] ba) {
 		if (ba.length == 0) {
 			return;
 		}
 		lock.lock();
+		if (!fitsStart(ba.length)) {
+			lock.unlock();
+			throw new IllegalArgumentException("Array of length " + ba.length + " does not fit segment size " + getSegmentSize());
+		}
 		chain.add(0, ba);
 		startLen += ba.length;
 		array++;
+		if (releaseConsumed) {
+			keptArrays++;
+			keptLen += ba.length;
+		}
 		lock.unlock();
 	}
 	
@@ -40,19 +131,108 @@ public class BufferChain<T> {
 			return;
 		}
 		lock.lock();
+		if (!fitsEnd(ba.length)) {
+			lock.unlock();
+			throw new IllegalArgumentException("Array of length " + ba.length + " does not fit segment size " + getSegmentSize());
+		}
 		chain.add(ba);
 		endLen += ba.length;
+		notEmpty.signalAll();
 		lock.unlock();
 	}
 	
+	/**
+	 * Adds the array to the end of the buffer if doing so would not exceed
+	 * the buffer's capacity. An array larger than the capacity is accepted
+	 * when the buffer has no unread Ts.
+	 * @param ba The array to add.
+	 * @return True if the array was added, false if the buffer is full.
+	 */
+	public boolean offerEnd(T[] ba) {
+		if (ba.length == 0) {
+			return true;
+		}
+		lock.lock();
+		try {
+			if (!hasRoom(ba.length)) {
+				return false;
+			}
+			addEnd(ba);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the array to the end of the buffer, waiting for the consumer to
+	 * make room if the buffer is full.
+	 * @param ba The array to add.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void putEnd(T[] ba) throws InterruptedException {
+		if (ba.length == 0) {
+			return;
+		}
+		lock.lockInterruptibly();
+		try {
+			while (!hasRoom(ba.length)) {
+				notFull.await();
+			}
+			addEnd(ba);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Adds the array to the end of the buffer, waiting up to the given time
+	 * for the consumer to make room if the buffer is full.
+	 * @param ba The array to add.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of timeout.
+	 * @return True if the array was added, false if the wait timed out.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean putEnd(T[] ba, long timeout, TimeUnit unit) throws InterruptedException {
+		if (ba.length == 0) {
+			return true;
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (!hasRoom(ba.length)) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			addEnd(ba);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private boolean hasRoom(int len) {
+		return (endLen == 0 || endLen + len <= capacity) && chain.size() - array < segmentCapacity;
+	}
+	
+	public long getCapacity() {
+		return capacity;
+	}
+	
+	public int getSegmentCapacity() {
+		return segmentCapacity;
+	}
+	
 	public boolean removeStart() {
 		lock.lock();
 		if (array == 0) {
 			lock.unlock();
 			return false;
 		}
-		startLen -= chain.remove(0).length;
-		array--;
+		removeFirst();
 		lock.unlock();
 		return true;
 	}
@@ -64,6 +244,7 @@ public class BufferChain<T> {
 			return false;
 		}
 		endLen -= chain.remove(chain.size() - 1).length;
+		notFull.signalAll();
 		lock.unlock();
 		return true;
 	}
@@ -78,31 +259,150 @@ public class BufferChain<T> {
 			return false;
 		}
 		lock.lock();
+		if (Ts < 0 && releaseConsumed) {
+			lock.unlock();
+			return false;
+		}
+		if (Ts > 0 && releaseConsumed) {
+			release(Ts);
+		}
 		long newIndex = bindex + Ts;
 		int newArray = array;
 		T[] a;
-		while (newIndex < 0 && newArray >= 0) {
-			newArray--;
-			a = chain.get(newArray);
-			newIndex += a.length;
-//			startLen -= a.length;
-//			endLen += a.length;
-		}
-		while (newIndex > 0 && newIndex >= chain.get(newArray).length) {
-			a = chain.get(newArray);
-			newIndex -= a.length;
-//			startLen += a.length;
-//			endLen -= a.length;
-			newArray++;
+		if (segmentShift >= 0) {
+			newArray = segmentOf(startLen + Ts);
+			newIndex = newArray < chain.size() ? startLen + Ts - segmentStart(newArray) : 0;
+		} else {
+			while (newIndex < 0 && newArray >= 0) {
+				newArray--;
+				a = chain.get(newArray);
+				newIndex += a.length;
+//				startLen -= a.length;
+//				endLen += a.length;
+			}
+			while (newIndex > 0 && newIndex >= chain.get(newArray).length) {
+				a = chain.get(newArray);
+				newIndex -= a.length;
+//				startLen += a.length;
+//				endLen -= a.length;
+				newArray++;
+			}
 		}
 		startLen += Ts;
 		endLen -= Ts;
 		array = newArray;
 		bindex = (int)newIndex;
+		if (Ts > 0) {
+			trimConsumed();
+			notFull.signalAll();
+		} else {
+			notEmpty.signalAll();
+		}
 		lock.unlock();
 		return true;
 	}
 	
+	/**
+	 * Nulls out the next n Ts after the cursor without moving it. Lock must
+	 * be held.
+	 */
+	private void release(long n) {
+		int ai = array;
+		int bi = bindex;
+		while (n > 0) {
+			T[] a = chain.get(ai);
+			int end = (int)Math.min(a.length, bi + n);
+			Arrays.fill(a, bi, end, null);
+			n -= end - bi;
+			bi = 0;
+			ai++;
+		}
+	}
+	
+	/**
+	 * Removes fully read arrays from the start of the buffer while more than
+	 * the retain limit of read Ts are held. Lock must be held.
+	 */
+	private void trimConsumed() {
+		while (array > 0 && startLen > retainLimit) {
+			removeFirst();
+		}
+	}
+	
+	/**
+	 * Removes the first array, which must be fully read. Lock must be held.
+	 */
+	private void removeFirst() {
+		T[] a = chain.remove(0);
+		startLen -= a.length;
+		array--;
+		if (keptArrays > 0) {
+			keptArrays--;
+			keptLen -= a.length;
+		}
+	}
+	
+	/**
+	 * Sets whether Ts are nulled out of their arrays as they are read, so the
+	 * buffer stops referencing them. This writes to the arrays that were
+	 * added to the buffer. While enabled, last() throws and the buffer can
+	 * not be moved backwards. Enabling this nulls out all Ts that have
+	 * already been read.
+	 * @param releaseConsumed True to null out read Ts.
+	 */
+	public void setReleaseConsumed(boolean releaseConsumed) {
+		lock.lock();
+		if (releaseConsumed && !this.releaseConsumed) {
+			for (int i = 0; i < array; ++i) {
+				Arrays.fill(chain.get(i), null);
+			}
+			if (array < chain.size()) {
+				Arrays.fill(chain.get(array), 0, bindex, null);
+			}
+			keptArrays = 0;
+			keptLen = 0;
+		}
+		this.releaseConsumed = releaseConsumed;
+		lock.unlock();
+	}
+	
+	public boolean isReleaseConsumed() {
+		return releaseConsumed;
+	}
+	
+	/**
+	 * Sets the number of read Ts the buffer may hold before fully read arrays
+	 * are removed from its start, as if by removeStart(). Removing arrays
+	 * lowers getIndex() by their length. Long.MAX_VALUE (the default) never
+	 * removes arrays, 0 removes each array as soon as it has been read.
+	 * @param retainLimit The number of read Ts to keep.
+	 */
+	public void setRetainLimit(long retainLimit) {
+		if (retainLimit < 0) {
+			throw new IllegalArgumentException("Retain limit must not be negative: " + retainLimit);
+		}
+		lock.lock();
+		this.retainLimit = retainLimit;
+		trimConsumed();
+		lock.unlock();
+	}
+	
+	public long getRetainLimit() {
+		return retainLimit;
+	}
+	
+	/**
+	 * @return The number of read Ts that are still referenced by the buffer.
+	 * While read Ts are released these are the Ts of arrays added with
+	 * addStart since.
+	 */
+	public long retainedElements() {
+		lock.lock();
+		long retained = releaseConsumed ? keptLen : startLen;
+		lock.unlock();
+		return retained;
+	}
+	
 	public void lock() {
 		lock.lock();
 	}
@@ -123,6 +423,76 @@ public class BufferChain<T> {
 		return ret;
 	}
 	
+	/**
+	 * Reads the T at the given index without moving the buffer. This is O(1)
+	 * for buffers created with withSegmentSize, otherwise it walks the
+	 * arrays.
+	 * @param index The index in the buffer to read, in the same terms as
+	 * getIndex().
+	 * @return The T at index.
+	 */
+	public T get(long index) {
+		lock.lock();
+		try {
+			if (index < 0 || index >= startLen + endLen) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + (startLen + endLen));
+			}
+			int ai = segmentOf(index);
+			T v = chain.get(ai)[(int)(index - segmentStart(ai))];
+			lock.unlock();
+			return v;
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return The index in chain of the array holding the given index, or
+	 * chain.size() if the index is the end of the buffer. Lock must be held.
+	 */
+	private int segmentOf(long index) {
+		int size = chain.size();
+		if (size == 0) {
+			return 0;
+		}
+		int ai;
+		if (segmentShift >= 0) {
+			int head = chain.get(0).length;
+			ai = index < head ? 0 : 1 + (int)((index - head) >>> segmentShift);
+		} else {
+			ai = 0;
+			long start = 0;
+			while (ai < size && index >= start + chain.get(ai).length) {
+				start += chain.get(ai).length;
+				ai++;
+			}
+			return ai;
+		}
+		if (ai < size && index - segmentStart(ai) >= chain.get(ai).length) {
+			ai++;
+		}
+		return ai;
+	}
+	
+	/**
+	 * @return The index of the first T in the given array of chain. Lock must
+	 * be held.
+	 */
+	private long segmentStart(int ai) {
+		if (ai == 0) {
+			return 0;
+		}
+		if (segmentShift >= 0) {
+			return chain.get(0).length + ((long)(ai - 1) << segmentShift);
+		}
+		long start = 0;
+		for (int i = 0; i < ai; ++i) {
+			start += chain.get(i).length;
+		}
+		return start;
+	}
+	
 	public long getIndex() {
 		return startLen;
 	}
@@ -170,6 +540,9 @@ public class BufferChain<T> {
 		try {
 			T[] a = chain.get(array);
 			T v = a[bindex];
+			if (releaseConsumed) {
+				a[bindex] = null;
+			}
 			bindex++;
 			if (bindex >= a.length) {
 				bindex -= a.length;
@@ -177,6 +550,8 @@ public class BufferChain<T> {
 			}
 			++startLen;
 			--endLen;
+			trimConsumed();
+			notFull.signalAll();
 			lock.unlock();
 			return v;
 		} catch (Exception e) {
@@ -188,6 +563,9 @@ public class BufferChain<T> {
 	public T last() {
 		lock.lock();
 		try {
+			if (releaseConsumed) {
+				throw new IllegalStateException("Cannot read backwards while read values are released");
+			}
 			int bi2 = bindex - 1;
 			int a2 = array;
 			if (bi2 < 0) {
@@ -199,6 +577,7 @@ public class BufferChain<T> {
 			bindex = bi2;
 			--startLen;
 			++endLen;
+			notEmpty.signalAll();
 			lock.unlock();
 			return v;
 		} catch (Exception e) {
@@ -206,4 +585,336 @@ public class BufferChain<T> {
 			throw e;
 		}
 	}
+	
+	/**
+	 * Copies the next len Ts into dst and advances the buffer past them.
+	 * @param dst The array to copy into.
+	 * @param off The index in dst to start copying at.
+	 * @param len The number of Ts to copy.
+	 */
+	public void get(T[] dst, int off, int len) {
+		if (off < 0 || len < 0 || len > dst.length - off) {
+			throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + dst.length);
+		}
+		lock.lock();
+		try {
+			ensureLength(len);
+			while (len > 0) {
+				T[] a = chain.get(array);
+				int n = Math.min(len, a.length - bindex);
+				System.arraycopy(a, bindex, dst, off, n);
+				off += n;
+				len -= n;
+				advance(a, n);
+			}
+			lock.unlock();
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Adds up to max of the remaining Ts to the given collection, advancing
+	 * the buffer past each T added. If the collection throws, the buffer is
+	 * still advanced past the Ts it took before throwing.
+	 * @param c The collection to add to.
+	 * @param max The maximum number of Ts to drain.
+	 * @return The number of Ts drained.
+	 */
+	public int drainTo(Collection<? super T> c, int max) {
+		lock.lock();
+		try {
+			int len = (int)Math.min(Math.max(max, 0), endLen);
+			int drained = 0;
+			while (drained < len) {
+				T[] a = chain.get(array);
+				int n = Math.min(len - drained, a.length - bindex);
+				int added = 0;
+				try {
+					for (int i = bindex, end = bindex + n; i < end; ++i) {
+						c.add(a[i]);
+						added++;
+					}
+				} finally {
+					// Even if c threw, it has the Ts added so far.
+					advance(a, added);
+				}
+				drained += added;
+			}
+			lock.unlock();
+			return drained;
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Reads the next T, waiting for one to be added if the buffer has no
+	 * unread Ts. Arrays are removed from the start of the buffer once they
+	 * have been fully read, so the buffer's index does not keep growing.
+	 * @return The next T.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public T take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (endLen == 0) {
+				notEmpty.await();
+			}
+			T v = get();
+			dropConsumed();
+			return v;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Reads the next T, waiting up to the given time for one to be added if
+	 * the buffer has no unread Ts. Fully read arrays are removed as in
+	 * {@link #take()}.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of timeout.
+	 * @return The next T, or null if the wait timed out.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (endLen == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			T v = get();
+			dropConsumed();
+			return v;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Claims the unread remainder of the current array, waiting for an array
+	 * to be added if the buffer has no unread Ts. If none of the array has
+	 * been read yet it is returned as-is, otherwise the unread part is
+	 * copied. Fully read arrays are removed as in {@link #take()}.
+	 * @return The unread Ts of the current array.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public T[] takeSegment() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (endLen == 0) {
+				notEmpty.await();
+			}
+			return claimSegment();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Same as {@link #takeSegment()}, but gives up after the given time.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of timeout.
+	 * @return The unread Ts of the current array, or null if the wait timed
+	 * out.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public T[] pollSegment(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (endLen == 0) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return claimSegment();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private T[] claimSegment() {
+		T[] a = chain.get(array);
+		T[] seg = bindex == 0 ? a : Arrays.copyOfRange(a, bindex, a.length);
+		// An array handed out whole belongs to the caller now, don't null it.
+		advance(a, a.length - bindex, releaseConsumed && seg != a);
+		dropConsumed();
+		return seg;
+	}
+	
+	/**
+	 * Removes all fully read arrays from the start of the buffer. Lock must be
+	 * held.
+	 */
+	private void dropConsumed() {
+		while (array > 0) {
+			removeFirst();
+		}
+	}
+	
+	/**
+	 * Moves the cursor n Ts forward within the current array a, rolling over
+	 * to the next array if the end of a is reached. Lock must be held.
+	 */
+	private void advance(T[] a, int n) {
+		advance(a, n, releaseConsumed);
+	}
+	
+	private void advance(T[] a, int n, boolean release) {
+		if (release) {
+			Arrays.fill(a, bindex, bindex + n, null);
+		}
+		bindex += n;
+		startLen += n;
+		endLen -= n;
+		if (bindex >= a.length) {
+			bindex = 0;
+			array++;
+		}
+		trimConsumed();
+		notFull.signalAll();
+	}
+	
+	private void ensureLength(long len) {
+		if (len > endLen) {
+			throw new IllegalStateException("Unable to read values from BufferChain (required: " + len + ", remaining " + endLen);
+		}
+	}
+	
+	/**
+	 * Returns a spliterator over the remaining Ts in the buffer. The arrays in
+	 * the chain are captured once when this is called, so the spliterator does
+	 * not lock the buffer and is not affected by later adds, removes, or
+	 * reads. While read Ts are released the arrays are copied, since reads
+	 * null out their Ts. It does not move the buffer's cursor. Splits happen
+	 * at array boundaries where possible.
+	 * @return A SIZED and SUBSIZED spliterator over the remaining Ts.
+	 */
+	public Spliterator<T> spliterator() {
+		lock.lock();
+		try {
+			int count = chain.size() - array;
+			Object[][] segs = new Object[count][];
+			long[] offsets = new long[count + 1];
+			for (int i = 0; i < count; ++i) {
+				segs[i] = releaseConsumed ? chain.get(array + i).clone() : chain.get(array + i);
+				offsets[i + 1] = offsets[i] + segs[i].length;
+			}
+			Spliterator<T> s = new ChainSpliterator<>(segs, offsets, 0, bindex, offsets[count]);
+			lock.unlock();
+			return s;
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return A sequential stream over the remaining Ts in the buffer.
+	 * @see #spliterator()
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	private static final class ChainSpliterator<T> implements Spliterator<T> {
+		
+		private final Object[][] segs;
+		private final long[] offsets;
+		private int seg;
+		private long pos;
+		private final long end;
+		
+		ChainSpliterator(Object[][] segs, long[] offsets, int seg, long pos, long end) {
+			this.segs = segs;
+			this.offsets = offsets;
+			this.seg = seg;
+			this.pos = pos;
+			this.end = end;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (pos >= end) {
+				return false;
+			}
+			while (pos >= offsets[seg + 1]) {
+				seg++;
+			}
+			action.accept((T)segs[seg][(int)(pos - offsets[seg])]);
+			pos++;
+			return true;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public void forEachRemaining(Consumer<? super T> action) {
+			long p = pos;
+			int s = seg;
+			pos = end;
+			while (p < end) {
+				while (p >= offsets[s + 1]) {
+					s++;
+				}
+				Object[] a = segs[s];
+				int i = (int)(p - offsets[s]);
+				int stop = (int)(Math.min(end, offsets[s + 1]) - offsets[s]);
+				p += stop - i;
+				for (; i < stop; ++i) {
+					action.accept((T)a[i]);
+				}
+			}
+			seg = s;
+		}
+		
+		@Override
+		public Spliterator<T> trySplit() {
+			if (end - pos < 2) {
+				return null;
+			}
+			while (pos >= offsets[seg + 1] && pos < end) {
+				seg++;
+			}
+			int last = seg;
+			while (offsets[last + 1] < end) {
+				last++;
+			}
+			long mid;
+			int midSeg;
+			if (last > seg) {
+				midSeg = (seg + last + 1) >>> 1;
+				mid = offsets[midSeg];
+			} else {
+				mid = (pos + end) >>> 1;
+				midSeg = seg;
+				if (mid <= pos) {
+					return null;
+				}
+			}
+			Spliterator<T> prefix = new ChainSpliterator<>(segs, offsets, seg, pos, mid);
+			seg = midSeg;
+			pos = mid;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return end - pos;
+		}
+		
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED;
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package com.caucraft.miscutils;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -13,9 +15,11 @@ public class ByteBufferChain {
 	private int bindex;
 	private long startLen;
 	private long endLen;
+	private int segmentShift;
 	
 	ByteBufferChain(byte[]... chain) {
 		this.lock = new ReentrantLock();
+		this.segmentShift = -1;
 		this.chain = new ArrayList<>(chain.length);
 		for (byte[] ba : chain) {
 			Objects.requireNonNull(ba);
@@ -26,6 +30,43 @@ public class ByteBufferChain {
 		}
 	}
 	
+	/**
+	 * Creates a buffer where every array except the first and last must be
+	 * exactly segmentSize long, and the first and last may be at most that
+	 * long. This lets get(long) and goTo find an index with a shift and a
+	 * mask instead of walking the arrays.
+	 * @param segmentSize The array length, must be a power of two.
+	 * @param chain The initial arrays in the buffer.
+	 * @return The new buffer.
+	 */
+	static ByteBufferChain withSegmentSize(int segmentSize, byte[]... chain) {
+		if (segmentSize <= 0 || (segmentSize & segmentSize - 1) != 0) {
+			throw new IllegalArgumentException("Segment size must be a power of two: " + segmentSize);
+		}
+		ByteBufferChain bbc = new ByteBufferChain();
+		bbc.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+		for (byte[] ba : chain) {
+			bbc.addEnd(ba);
+		}
+		return bbc;
+	}
+	
+	public int getSegmentSize() {
+		return segmentShift < 0 ? -1 : 1 << segmentShift;
+	}
+	
+	private boolean fitsStart(int len) {
+		int size = chain.size();
+		return segmentShift < 0
+				|| len <= 1 << segmentShift && (size < 2 || chain.get(0).length == 1 << segmentShift);
+	}
+	
+	private boolean fitsEnd(int len) {
+		int size = chain.size();
+		return segmentShift < 0
+				|| len <= 1 << segmentShift && (size < 2 || chain.get(size - 1).length == 1 << segmentShift);
+	}
+	
 	public int getLocks() {
 		return lock.getHoldCount();
 	}
@@ -36,6 +77,10 @@ public class ByteBufferChain {
 			return;
 		}
 		lock.lock();
+		if (!fitsStart(ba.length)) {
+			lock.unlock();
+			throw new IllegalArgumentException("Array of length " + ba.length + " does not fit segment size " + getSegmentSize());
+		}
 		chain.add(0, ba);
 		startLen += ba.length;
 		array++;
@@ -48,6 +93,10 @@ public class ByteBufferChain {
 			return;
 		}
 		lock.lock();
+		if (!fitsEnd(ba.length)) {
+			lock.unlock();
+			throw new IllegalArgumentException("Array of length " + ba.length + " does not fit segment size " + getSegmentSize());
+		}
 		chain.add(ba);
 		endLen += ba.length;
 		lock.unlock();
@@ -90,19 +139,24 @@ public class ByteBufferChain {
 		long newByteIndex = bindex + bytes;
 		int newArray = array;
 		byte[] a;
-		while (newByteIndex < 0 && newArray >= 0) {
-			newArray--;
-			a = chain.get(newArray);
-			newByteIndex += a.length;
-//			startLen -= a.length;
-//			endLen += a.length;
-		}
-		while (newByteIndex > 0 && newByteIndex >= chain.get(newArray).length) {
-			a = chain.get(newArray);
-			newByteIndex -= a.length;
-//			startLen += a.length;
-//			endLen -= a.length;
-			newArray++;
+		if (segmentShift >= 0) {
+			newArray = segmentOf(startLen + bytes);
+			newByteIndex = newArray < chain.size() ? startLen + bytes - segmentStart(newArray) : 0;
+		} else {
+			while (newByteIndex < 0 && newArray >= 0) {
+				newArray--;
+				a = chain.get(newArray);
+				newByteIndex += a.length;
+//				startLen -= a.length;
+//				endLen += a.length;
+			}
+			while (newByteIndex > 0 && newByteIndex >= chain.get(newArray).length) {
+				a = chain.get(newArray);
+				newByteIndex -= a.length;
+//				startLen += a.length;
+//				endLen -= a.length;
+				newArray++;
+			}
 		}
 		startLen += bytes;
 		endLen -= bytes;
@@ -132,6 +186,76 @@ public class ByteBufferChain {
 		return ret;
 	}
 	
+	/**
+	 * Reads the byte at the given index without moving the buffer. This is
+	 * O(1) for buffers created with withSegmentSize, otherwise it walks the
+	 * arrays.
+	 * @param index The index in the buffer to read, in the same terms as
+	 * getIndex().
+	 * @return The byte at index.
+	 */
+	public byte get(long index) {
+		lock.lock();
+		try {
+			if (index < 0 || index >= startLen + endLen) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + (startLen + endLen));
+			}
+			int ai = segmentOf(index);
+			byte v = chain.get(ai)[(int)(index - segmentStart(ai))];
+			lock.unlock();
+			return v;
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return The index in chain of the array holding the given index, or
+	 * chain.size() if the index is the end of the buffer. Lock must be held.
+	 */
+	private int segmentOf(long index) {
+		int size = chain.size();
+		if (size == 0) {
+			return 0;
+		}
+		int ai;
+		if (segmentShift >= 0) {
+			int head = chain.get(0).length;
+			ai = index < head ? 0 : 1 + (int)((index - head) >>> segmentShift);
+		} else {
+			ai = 0;
+			long start = 0;
+			while (ai < size && index >= start + chain.get(ai).length) {
+				start += chain.get(ai).length;
+				ai++;
+			}
+			return ai;
+		}
+		if (ai < size && index - segmentStart(ai) >= chain.get(ai).length) {
+			ai++;
+		}
+		return ai;
+	}
+	
+	/**
+	 * @return The index of the first byte in the given array of chain. Lock
+	 * must be held.
+	 */
+	private long segmentStart(int ai) {
+		if (ai == 0) {
+			return 0;
+		}
+		if (segmentShift >= 0) {
+			return chain.get(0).length + ((long)(ai - 1) << segmentShift);
+		}
+		long start = 0;
+		for (int i = 0; i < ai; ++i) {
+			start += chain.get(i).length;
+		}
+		return start;
+	}
+	
 	public long getIndex() {
 		return startLen;
 	}
@@ -144,6 +268,36 @@ public class ByteBufferChain {
 		return array;
 	}
 	
+	/**
+	 * @return The number of arrays in the chain, including ones already read
+	 * past that have not been removed.
+	 */
+	public int getArrayCount() {
+		lock.lock();
+		int n = chain.size();
+		lock.unlock();
+		return n;
+	}
+	
+	/**
+	 * Returns a read-only view of one of the arrays in the chain, without
+	 * copying it. Indices are in the same terms as getArrayIndex(), and shift
+	 * down when removeStart() is called.
+	 * @param arrayIndex The index of the array in the chain.
+	 * @return A buffer over the whole array.
+	 */
+	public ByteBuffer getArray(int arrayIndex) {
+		lock.lock();
+		try {
+			ByteBuffer b = ByteBuffer.wrap(chain.get(arrayIndex)).asReadOnlyBuffer();
+			lock.unlock();
+			return b;
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
 	public int getByteIndex() {
 		return bindex;
 	}
@@ -168,6 +322,90 @@ public class ByteBufferChain {
 		}
 	}
 
+	/**
+	 * Copies the next len bytes into dst and advances the buffer past them.
+	 * @param dst The array to copy into.
+	 * @param off The index in dst to start copying at.
+	 * @param len The number of bytes to copy.
+	 */
+	public void get(byte[] dst, int off, int len) {
+		if (off < 0 || len < 0 || len > dst.length - off) {
+			throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + dst.length);
+		}
+		lock.lock();
+		try {
+			ensureLength(len);
+			while (len > 0) {
+				byte[] a = chain.get(array);
+				int n = Math.min(len, a.length - bindex);
+				System.arraycopy(a, bindex, dst, off, n);
+				off += n;
+				len -= n;
+				bindex += n;
+				startLen += n;
+				endLen -= n;
+				if (bindex >= a.length) {
+					bindex = 0;
+					array++;
+				}
+			}
+			lock.unlock();
+		} catch (Exception e) {
+			lock.unlock();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns a stream over the next length bytes of the buffer. Reading from
+	 * it advances the buffer, copying straight out of the arrays in the
+	 * chain, so the bytes are never gathered into one array. The stream ends
+	 * after length bytes, or earlier if the buffer runs out.
+	 * @param length The number of bytes the stream may read.
+	 * @return The stream.
+	 */
+	public InputStream inputStream(final long length) {
+		return new InputStream() {
+			
+			private long left = length;
+			
+			@Override
+			public int read() {
+				lock.lock();
+				try {
+					if (left <= 0 || endLen <= 0) {
+						return -1;
+					}
+					left--;
+					return get() & 255;
+				} finally {
+					lock.unlock();
+				}
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) {
+				lock.lock();
+				try {
+					int n = (int)Math.min(len, Math.min(left, endLen));
+					if (n <= 0 && len > 0) {
+						return -1;
+					}
+					get(b, off, n);
+					left -= n;
+					return n;
+				} finally {
+					lock.unlock();
+				}
+			}
+			
+			@Override
+			public int available() {
+				return (int)Math.min(Integer.MAX_VALUE, Math.min(left, endLen));
+			}
+		};
+	}
+	
 	public char getChar() {
 		lock.lock();
 		try {
@@ -0,0 +1,221 @@
+package com.caucraft.miscutils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A size bounded cache that is safe to share between threads. Lookups go
+ * through a ConcurrentHashMap and never lock, they only set a referenced bit
+ * on the entry they find. Inserts lock and, once the cache is full, evict the
+ * first entry a CLOCK hand finds without its referenced bit set (clearing
+ * the bits it passes over).
+ */
+public final class ClockCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<K, V>> map;
+    private final Object lock;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final Consumer<? super K> evicted;
+    private Entry<K, V>[] ring;
+    private int count;
+    private int hand;
+
+    public ClockCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param evicted Called with the key of each entry evicted to make room,
+     * while the cache's lock is held. Not called for entries removed or
+     * cleared.
+     */
+    public ClockCache(int capacity, Consumer<? super K> evicted) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.map = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+        this.lock = new Object();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.evicted = evicted;
+        this.ring = newRing(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V>[] newRing(int capacity) {
+        return (Entry<K, V>[]) new Entry<?, ?>[capacity];
+    }
+
+    /**
+     * @return The cached value for key, or null if there is none.
+     */
+    public V get(K key) {
+        Entry<K, V> e = map.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        if (!e.referenced) {
+            e.referenced = true;
+        }
+        hits.increment();
+        return e.value;
+    }
+
+    /**
+     * Returns the cached value for key, loading and caching it if there is
+     * none. The loader runs without any lock held, so two threads missing on
+     * the same key may both load it; the first one cached is kept and
+     * returned to both.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+        V v = get(key);
+        if (v != null) {
+            return v;
+        }
+        return put(key, loader.apply(key));
+    }
+
+    /**
+     * Caches value for key unless key is already cached.
+     * @return The value now cached for key.
+     */
+    public V put(K key, V value) {
+        synchronized (lock) {
+            Entry<K, V> existing = map.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            Entry<K, V> e = new Entry<>(key, value);
+            if (count < ring.length) {
+                e.slot = count;
+                ring[count++] = e;
+            } else {
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                evict(ring[hand]);
+                e.slot = hand;
+                ring[hand] = e;
+                hand = (hand + 1) % ring.length;
+            }
+            map.put(key, e);
+            return value;
+        }
+    }
+
+    /**
+     * Drops the cached value for key, if there is one.
+     * @return True if key was cached.
+     */
+    public boolean remove(K key) {
+        synchronized (lock) {
+            Entry<K, V> e = map.remove(key);
+            if (e == null) {
+                return false;
+            }
+            // Move the last entry into the hole to keep the ring packed.
+            Entry<K, V> last = ring[--count];
+            last.slot = e.slot;
+            ring[e.slot] = last;
+            ring[count] = null;
+            if (hand >= count) {
+                hand = 0;
+            }
+            return true;
+        }
+    }
+
+    private void evict(Entry<K, V> e) {
+        map.remove(e.key);
+        evictions.increment();
+        if (evicted != null) {
+            evicted.accept(e.key);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            map.clear();
+            ring = newRing(ring.length);
+            count = 0;
+            hand = 0;
+        }
+    }
+
+    /**
+     * Changes the number of entries the cache can hold. When shrinking,
+     * recently referenced entries are kept first.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        synchronized (lock) {
+            Entry<K, V>[] newRing = newRing(capacity);
+            int kept = 0;
+            for (int pass = 0; pass < 2; ++pass) {
+                for (int i = 0; i < count; ++i) {
+                    Entry<K, V> e = ring[i];
+                    if (e.referenced == (pass == 0)) {
+                        if (kept < capacity) {
+                            e.slot = kept;
+                            newRing[kept++] = e;
+                        } else {
+                            evict(e);
+                        }
+                    }
+                }
+            }
+            ring = newRing;
+            count = kept;
+            hand = 0;
+        }
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ClockCache{size=" + size() + ", capacity=" + capacity() + ", hits=" + hits()
+                + ", misses=" + misses() + ", evictions=" + evictions() + "}";
+    }
+
+    private static final class Entry<K, V> {
+
+        private final K key;
+        private final V value;
+        private volatile boolean referenced;
+        /** The entry's index in the ring, guarded by the cache's lock. */
+        private int slot;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A JsonConfig that any number of threads may read while other threads
+ * write. The tree held by this config is never modified once published.
+ * Writers copy only the objects and arrays on the path to the value being
+ * set, share everything else with the previous tree, and then publish the
+ * new root with a single volatile write. Readers always see a complete tree
+ * and never block, except on a tree loaded with loadLazy, whose lookups are
+ * synchronized until the tree is built.
+ * <p>
+ * Maps and lists returned by getAsMap and getAsList are read-only, and
+ * getSubConfig returns a detached ConcurrentJsonConfig, setting values on it
+ * does not affect this config. The element returned by getRootElement must
+ * not be modified.
+ */
+public class ConcurrentJsonConfig extends JsonConfig {
+
+    private final Object writeLock = new Object();
+    private volatile long version;
+
+    public ConcurrentJsonConfig() {
+        super();
+    }
+
+    /**
+     * @param e The root element. This config takes ownership of it, it must
+     * not be modified afterwards.
+     */
+    public ConcurrentJsonConfig(JsonElement e) {
+        super(e);
+    }
+
+    public ConcurrentJsonConfig(String json) {
+        super(json);
+    }
+
+    public ConcurrentJsonConfig(ByteBufferChain chain, long length) {
+        super(parse(chain, length));
+    }
+
+    /**
+     * @return The number of times a new root has been published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void set(String key, Object value) {
+        JsonElement e = gson.toJsonTree(value);
+        synchronized (writeLock) {
+            JsonElement old = materializedRoot();
+            JsonElement newRoot = withValue(old, key, e, null);
+            if (newRoot == null || newRoot == old) {
+                return;
+            }
+            publish(newRoot);
+        }
+        changed(getAccessor(key));
+    }
+
+    /**
+     * Applies several sets and publishes the result as one new root. Readers
+     * see either none or all of them. Objects and arrays copied by one set in
+     * the batch are modified in place by later sets instead of being copied
+     * again.
+     * @param edits Called with a Batch to make the sets through.
+     */
+    public void update(Consumer<? super Batch> edits) {
+        Batch batch;
+        boolean published = false;
+        synchronized (writeLock) {
+            JsonElement old = materializedRoot();
+            batch = new Batch(old);
+            edits.accept(batch);
+            if (batch.root != old) {
+                publish(batch.root);
+                published = true;
+            }
+        }
+        if (published && !batch.changed.isEmpty()) {
+            changed(batch.changed);
+        }
+    }
+
+    /**
+     * Publishes a loaded tree under the write lock, so loads are ordered with
+     * set and update and count as a new version.
+     */
+    @Override
+    void swapRoot(JsonElement loaded, DeferredRoot d) {
+        synchronized (writeLock) {
+            super.swapRoot(loaded, d);
+            version++;
+        }
+    }
+
+    @Override
+    public JsonConfig getSubConfig(String key) {
+        JsonElement e = get(key);
+        if (e != null && (e.isJsonObject() || e.isJsonArray())) {
+            return new ConcurrentJsonConfig(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> getAsMap(String key) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonObject)) {
+            return null;
+        }
+        return new MapWrapper(e.getAsJsonObject(), true);
+    }
+
+    @Override
+    public List<Object> getAsList(String key) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonArray)) {
+            return null;
+        }
+        return new ListWrapper(e.getAsJsonArray(), true);
+    }
+
+    @Override
+    boolean mergeRoot(JsonElement parsed, List<JsonAccessor> changes) {
+        synchronized (writeLock) {
+            JsonElement old = materializedRoot();
+            JsonElement merged = JsonDiff.merge(old, parsed, changes);
+            if (merged == old) {
+                return false;
+            }
+            publish(merged);
+            return true;
+        }
+    }
+
+    @Override
+    boolean patchRoot(JsonPatch patch) {
+        synchronized (writeLock) {
+            JsonElement old = materializedRoot();
+            JsonElement patched = patch.applyTo(old);
+            if (patched == old) {
+                return false;
+            }
+            publish(patched);
+            return true;
+        }
+    }
+
+    @Override
+    JsonElement snapshot() {
+        return materializedRoot();
+    }
+
+    /**
+     * Publishes a new root. writeLock must be held.
+     */
+    private void publish(JsonElement newRoot) {
+        root = newRoot;
+        version++;
+    }
+
+    /**
+     * Returns a tree equal to root with value set at key, sharing all
+     * unchanged objects and arrays with root. Follows the same rules as
+     * JsonConfig.set for creating or replacing containers along the path.
+     * @param fresh Containers that were created for the current batch and may
+     * be modified in place, or null to copy every container on the path.
+     * @return The new root, or null if the value could not be set.
+     */
+    static JsonElement withValue(JsonElement root, String key, JsonElement value, Set<JsonElement> fresh) {
+        JsonAccessor accessor = getAccessor(key);
+        if (accessor.length() == 0) {
+            return value.isJsonObject() || value.isJsonArray() ? value : null;
+        }
+        boolean obj = accessor.keys[0] != null;
+        if (obj ? !root.isJsonObject() : !root.isJsonArray()) {
+            return null;
+        }
+        return withValue(root, accessor, 0, value, fresh);
+    }
+
+    private static JsonElement withValue(JsonElement node, JsonAccessor accessor, int i, JsonElement value, Set<JsonElement> fresh) {
+        if (i == accessor.length()) {
+            return value;
+        }
+        JsonElement copy;
+        if (fresh != null && fresh.contains(node)
+                && (accessor.keys[i] != null ? node.isJsonObject() : node.isJsonArray())) {
+            copy = node;
+        } else {
+            if (accessor.keys[i] != null) {
+                copy = node instanceof JsonObject ? copyOf((JsonObject) node) : new JsonObject();
+            } else {
+                copy = node instanceof JsonArray ? copyOf((JsonArray) node) : new JsonArray();
+            }
+            if (fresh != null) {
+                fresh.add(copy);
+            }
+        }
+        JsonElement child = accessor.step(copy, i);
+        accessor.put(copy, i, withValue(child, accessor, i + 1, value, fresh));
+        return copy;
+    }
+
+    static JsonObject copyOf(JsonObject obj) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> ent : obj.entrySet()) {
+            copy.add(ent.getKey(), ent.getValue());
+        }
+        return copy;
+    }
+
+    static JsonArray copyOf(JsonArray arr) {
+        JsonArray copy = new JsonArray(arr.size());
+        copy.addAll(arr);
+        return copy;
+    }
+
+    /**
+     * Collects sets made in ConcurrentJsonConfig.update.
+     */
+    public static final class Batch {
+
+        private final Set<JsonElement> fresh;
+        private final List<JsonAccessor> changed;
+        private JsonElement root;
+
+        private Batch(JsonElement root) {
+            this.fresh = Collections.newSetFromMap(new IdentityHashMap<JsonElement, Boolean>());
+            this.changed = new ArrayList<>();
+            this.root = root;
+        }
+
+        public Batch set(String key, Object value) {
+            JsonElement newRoot = withValue(root, key, gson.toJsonTree(value), fresh);
+            if (newRoot != null) {
+                root = newRoot;
+                changed.add(getAccessor(key));
+            }
+            return this;
+        }
+
+        /**
+         * @return The value at key as of the sets made so far in this batch.
+         */
+        public JsonElement get(String key) {
+            return getAccessor(key).get(root);
+        }
+    }
+}
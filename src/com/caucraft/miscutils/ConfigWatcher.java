@@ -0,0 +1,96 @@
+package com.caucraft.miscutils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Watches a config's file and reloads the config on a background thread
+ * whenever the file is modified or replaced.
+ */
+final class ConfigWatcher implements Runnable {
+
+    /** Time to wait for more events after one arrives, editors often write a file in several steps. */
+    private static final long SETTLE_MILLIS = 50;
+
+    private final JsonConfig config;
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ConfigWatcher(JsonConfig config, Path file) throws IOException {
+        this.config = config;
+        this.file = file.toAbsolutePath();
+        this.watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this, "JsonConfig-Watcher-" + this.file.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void stop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean hit = matches(key);
+                if (hit) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    while ((key = watchService.poll()) != null) {
+                        matches(key);
+                    }
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+        }
+    }
+
+    /**
+     * @return True if any of key's events are for the watched file.
+     */
+    private boolean matches(WatchKey key) {
+        boolean hit = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(context)) {
+                hit = true;
+            }
+        }
+        key.reset();
+        return hit;
+    }
+
+    private void reload() {
+        JsonElement parsed;
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            parsed = JsonParser.parseReader(reader);
+        } catch (IOException | JsonParseException e) {
+            // Most likely caught mid-write, the next event will try again.
+            return;
+        }
+        if (parsed.isJsonObject()) {
+            config.reload(parsed);
+        }
+    }
+}
@@ -2,17 +2,34 @@ package com.caucraft.miscutils;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.RandomAccess;
 import java.util.Set;
-import java.util.function.BiFunction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
@@ -24,68 +41,34 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 
 public class JsonConfig {
 
-    private static final BiFunction<JsonElement, Object, JsonElement> ARRAY_FUNC = new BiFunction<JsonElement, Object, JsonElement>() {
-
-        private final int hash = "A_F".hashCode();
-
-        @Override
-        public JsonElement apply(JsonElement json, Object i) {
-            try {
-                return json.getAsJsonArray().get((Integer) i);
-            } catch (Exception e) {
-                return null;
-            }
-        }
-
-        @Override
-        public String toString() {
-            return "A_F";
-        }
-
-        @Override
-        public int hashCode() {
-            return hash;
-        }
-    };
-    private static final BiFunction<JsonElement, Object, JsonElement> MAP_FUNC = new BiFunction<JsonElement, Object, JsonElement>() {
-
-        private final int hash = "M_F".hashCode();
-
-        @Override
-        public JsonElement apply(JsonElement json, Object s) {
-            try {
-                return json.getAsJsonObject().get((String) s);
-            } catch (Exception e) {
-                return null;
-            }
-        }
-
-        @Override
-        public String toString() {
-            return "M_F";
-        }
-
-        @Override
-        public int hashCode() {
-            return hash;
-        }
-    };
-    private static final Map<String, JsonAccessor> accessorMap = new HashMap<>();
-    private static final Map<String, List<BiFunction<JsonElement, Object, JsonElement>>> accessFunctionMap = new HashMap<>();
+    private static final JsonAccessor ROOT_ACCESSOR = new JsonAccessor(new String[0], new int[0]);
+    private static final ClockCache<String, JsonAccessor> accessorCache = new ClockCache<>(4096);
     protected static final Gson gson;
 
     static {
-        accessorMap.put("", new JsonAccessor(
-                new ArrayList<BiFunction<JsonElement, Object, JsonElement>>(0),
-                new ArrayList<Object>(0)));
         gson = new GsonBuilder()
                 .setPrettyPrinting()
                 .enableComplexMapKeySerialization()
@@ -93,11 +76,11 @@ public class JsonConfig {
                 .create();
     }
 
-    private static Object unJson(JsonElement e) {
+    private static Object unJson(JsonElement e, boolean readOnly) {
         if (e instanceof JsonObject) {
-            return new MapWrapper(e.getAsJsonObject());
+            return new MapWrapper(e.getAsJsonObject(), readOnly);
         } else if (e instanceof JsonArray) {
-            return new ListWrapper(e.getAsJsonArray());
+            return new ListWrapper(e.getAsJsonArray(), readOnly);
         } else if (e instanceof JsonPrimitive) {
             JsonPrimitive prim = e.getAsJsonPrimitive();
             if (prim.isBoolean()) {
@@ -111,7 +94,21 @@ public class JsonConfig {
         return null;
     }
 
-    protected JsonElement root;
+    protected volatile JsonElement root;
+    /**
+     * The tree when it has not been built as Gson elements yet, in which case
+     * root is null until materializedRoot() is called.
+     */
+    volatile DeferredRoot deferred;
+    private volatile AutoSaver autoSaver;
+    private volatile ConfigWatcher watcher;
+    private final ListenerTrie listeners = new ListenerTrie();
+    private final Map<JsonAccessor, NumberArrays> arrayCache = new ConcurrentHashMap<>();
+    /** The paths in arrayCache, so a change finds the arrays it affects by path. */
+    private final PathIndex arrayPaths = new PathIndex();
+    /** Layered configs that use this config as a layer. */
+    private final List<LayeredJsonConfig> dependents = new CopyOnWriteArrayList<>();
+    private volatile Executor listenerExecutor;
 
     public JsonConfig() {
         this(new JsonObject());
@@ -126,36 +123,60 @@ public class JsonConfig {
     }
     
     public JsonConfig(String json) {
-        this(new JsonParser().parse(json));
+        this(JsonParser.parseString(json));
+    }
+
+    /**
+     * Parses the next length bytes of chain as UTF-8 JSON, advancing the
+     * chain past them. The bytes are decoded as they are read from the
+     * chain's arrays, so the document is never held as a whole String or
+     * byte array.
+     * @param chain The buffer holding the document at its current position.
+     * @param length The length of the document in bytes.
+     */
+    public JsonConfig(ByteBufferChain chain, long length) {
+        this(parse(chain, length));
+    }
+
+    static JsonElement parse(ByteBufferChain chain, long length) {
+        return JsonParser.parseReader(new InputStreamReader(chain.inputStream(length), StandardCharsets.UTF_8));
+    }
+
+    JsonConfig(DeferredRoot d) {
+        this.deferred = d;
     }
 
     public Set<String> getKeys(String key) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || !e.isJsonObject()) {
-                return null;
-            }
-            Set<Map.Entry<String, JsonElement>> eset = e.getAsJsonObject().entrySet();
-            Set<String> keys = new HashSet<>(eset.size());
-            for (Map.Entry<String, JsonElement> ent : eset) {
-                keys.add(ent.getKey());
-            }
-            return keys;
-        } catch (IllegalStateException e) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonObject)) {
             return null;
         }
+        Set<Map.Entry<String, JsonElement>> eset = ((JsonObject) e).entrySet();
+        Set<String> keys = new HashSet<>(eset.size());
+        for (Map.Entry<String, JsonElement> ent : eset) {
+            keys.add(ent.getKey());
+        }
+        return keys;
     }
 
+    /**
+     * On a config loaded with loadCompact, the sub config is a view of the
+     * same compact tree and nothing is built. Either config stops sharing
+     * values with the other once values are set on it.
+     */
     public JsonConfig getSubConfig(String key) {
-        try {
-            JsonElement e = get(key);
-            if (e != null) {
-                return new JsonConfig(e);
+        DeferredRoot d = deferred;
+        if (d != null) {
+            DeferredRoot sub = d.subtree(getAccessor(key));
+            if (sub != null) {
+                return new JsonConfig(sub);
             }
-            return null;
-        } catch (IllegalStateException | IllegalArgumentException e) {
-            return null;
         }
+        JsonElement e = get(key);
+        if (e instanceof JsonObject || e instanceof JsonArray) {
+            return new JsonConfig(e);
+        }
+        return null;
     }
 
     public char getColorChar(String key, char defValue) {
@@ -167,99 +188,54 @@ public class JsonConfig {
     }
 
     public char getChar(String key, char defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsCharacter();
-        } catch (IllegalStateException e) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonPrimitive)) {
             return defValue;
         }
+        String s = e.getAsString();
+        return s.isEmpty() ? defValue : s.charAt(0);
     }
 
     public String getString(String key, String defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsString();
-        } catch (IllegalStateException e) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonPrimitive)) {
             return defValue;
         }
+        return e.getAsString();
     }
 
     public boolean getBool(String key, boolean defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsBoolean();
-        } catch (IllegalStateException e) {
-            return defValue;
-        }
+        Boolean b = toBoolean(get(key));
+        return b != null ? b : defValue;
     }
 
     public byte getByte(String key, byte defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsByte();
-        } catch (IllegalStateException e) {
-            return defValue;
-        }
+        Number n = toNumber(get(key));
+        return n != null ? n.byteValue() : defValue;
     }
 
     public short getShort(String key, short defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsShort();
-        } catch (IllegalStateException e) {
-            return defValue;
-        }
+        Number n = toNumber(get(key));
+        return n != null ? n.shortValue() : defValue;
     }
 
     public int getInt(String key, int defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsInt();
-        } catch (IllegalStateException e) {
-            return defValue;
-        }
+        Number n = toNumber(get(key));
+        return n != null ? n.intValue() : defValue;
     }
 
     public long getLong(String key, long defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsLong();
-        } catch (IllegalStateException e) {
-            return defValue;
-        }
+        Number n = toNumber(get(key));
+        return n != null ? n.longValue() : defValue;
     }
 
     public BigInteger getBigInteger(String key, BigInteger defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
-            }
-            return e.getAsBigInteger();
-        } catch (IllegalStateException e) {
-            return defValue;
+        Number n = toNumber(get(key));
+        if (n instanceof BigInteger) {
+            return (BigInteger) n;
         }
+        BigDecimal d = n != null ? toBigDecimal(n) : null;
+        return d != null ? d.toBigInteger() : defValue;
     }
 
     public float getFloat(String key, float defValue) {
@@ -267,77 +243,480 @@ public class JsonConfig {
     }
 
     public double getDouble(String key, double defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
+        Number n = toNumber(get(key));
+        return n != null ? n.doubleValue() : defValue;
+    }
+
+    public BigDecimal getBigDecimal(String key, BigDecimal defValue) {
+        Number n = toNumber(get(key));
+        BigDecimal d = n != null ? toBigDecimal(n) : null;
+        return d != null ? d : defValue;
+    }
+
+    /**
+     * Unlike getInt, tells a missing or non-numeric value apart from one that
+     * happens to equal a default.
+     * @return The value at key, or empty if there is no number there.
+     */
+    public OptionalInt getOptionalInt(String key) {
+        Number n = toNumber(get(key));
+        return n != null ? OptionalInt.of(n.intValue()) : OptionalInt.empty();
+    }
+
+    public OptionalLong getOptionalLong(String key) {
+        Number n = toNumber(get(key));
+        return n != null ? OptionalLong.of(n.longValue()) : OptionalLong.empty();
+    }
+
+    public OptionalDouble getOptionalDouble(String key) {
+        Number n = toNumber(get(key));
+        return n != null ? OptionalDouble.of(n.doubleValue()) : OptionalDouble.empty();
+    }
+
+    public Optional<Boolean> getOptionalBool(String key) {
+        return Optional.ofNullable(toBoolean(get(key)));
+    }
+
+    public Optional<String> getOptionalString(String key) {
+        JsonElement e = get(key);
+        return e instanceof JsonPrimitive ? Optional.of(e.getAsString()) : Optional.<String>empty();
+    }
+
+    /**
+     * Converts the array at key to an int[] in one pass, or returns the
+     * array from the last call if nothing at or above key has been set or
+     * reloaded since. The returned array is shared and must not be modified.
+     * Changes made directly to elements or through getAsList are not seen.
+     * @return The array, or defValue if there is no array at key or it holds
+     * anything other than numbers.
+     */
+    public int[] getIntArray(String key, int[] defValue) {
+        Object a = getNumberArray(key, int.class);
+        return a != null ? (int[]) a : defValue;
+    }
+
+    /**
+     * @see #getIntArray(String, int[])
+     */
+    public long[] getLongArray(String key, long[] defValue) {
+        Object a = getNumberArray(key, long.class);
+        return a != null ? (long[]) a : defValue;
+    }
+
+    /**
+     * @see #getIntArray(String, int[])
+     */
+    public double[] getDoubleArray(String key, double[] defValue) {
+        Object a = getNumberArray(key, double.class);
+        return a != null ? (double[]) a : defValue;
+    }
+
+    private Object getNumberArray(String key, Class<?> type) {
+        JsonAccessor path = getAccessor(key);
+        DeferredRoot d = deferred;
+        // A lazily loaded tree is only replaced by set or load, which evict.
+        JsonElement e = d == null ? get(path) : null;
+        NumberArrays cached = arrayCache.get(path);
+        if (cached == null || cached.source != e) {
+            cached = new NumberArrays(e);
+            if (arrayCache.put(path, cached) == null) {
+                arrayPaths.add(path);
             }
-            return e.getAsDouble();
-        } catch (IllegalStateException e) {
-            return defValue;
         }
+        Object a = cached.get(type);
+        if (a == null) {
+            a = d != null ? d.resolveNumberArray(path, type) : null;
+            if (a == null) {
+                a = NumberArrays.convert(d != null ? d.resolve(path) : e, type);
+                if (a == null) {
+                    return null;
+                }
+            }
+            cached.set(type, a);
+        }
+        return a;
     }
 
-    public BigDecimal getBigDecimal(String key, BigDecimal defValue) {
-        try {
-            JsonElement e = get(key);
-            if (e == null || e.isJsonNull()) {
-                return defValue;
+    /**
+     * Replaces the whole tree with a loaded one and notifies every listener,
+     * as the loaded tree is not compared with the old one. Like reload, a
+     * load does not mark the config dirty for auto save.
+     * @param loaded The new root, or null if d is given.
+     * @param d The new deferred tree, or null if loaded is given.
+     */
+    void replaceRoot(JsonElement loaded, DeferredRoot d) {
+        swapRoot(loaded, d);
+        List<JsonAccessor> changes = Collections.singletonList(ROOT_ACCESSOR);
+        evictCaches(changes);
+        fireListeners(changes);
+    }
+
+    /**
+     * Swaps in a new tree under the same lock as materializedRoot, so a tree
+     * being materialized concurrently can not overwrite it. The fields are
+     * written in the order get reads them, so get never sees both as null
+     * for longer than it takes to retry.
+     */
+    void swapRoot(JsonElement loaded, DeferredRoot d) {
+        synchronized (this) {
+            if (d != null) {
+                deferred = d;
+                root = null;
+            } else {
+                root = loaded;
+                deferred = null;
+            }
+        }
+    }
+
+    /**
+     * Drops cached number arrays at, above or below the changed paths, and
+     * tells layered configs built on this one what changed.
+     */
+    private void evictCaches(List<JsonAccessor> changes) {
+        for (LayeredJsonConfig l : dependents) {
+            l.layerChanged(changes);
+        }
+        if (arrayPaths.isEmpty()) {
+            return;
+        }
+        for (JsonAccessor path : arrayPaths.removeAffected(changes)) {
+            arrayCache.remove(path);
+        }
+    }
+
+    void addDependent(LayeredJsonConfig l) {
+        dependents.add(l);
+    }
+
+    void removeDependent(LayeredJsonConfig l) {
+        dependents.remove(l);
+    }
+
+    /**
+     * The getters check types explicitly instead of catching Gson's
+     * exceptions, so a missing or mistyped value costs no allocation.
+     * @return e as a number if it is a number or a string holding one,
+     * otherwise null.
+     */
+    static Number toNumber(JsonElement e) {
+        if (!(e instanceof JsonPrimitive)) {
+            return null;
+        }
+        JsonPrimitive prim = (JsonPrimitive) e;
+        if (prim.isNumber()) {
+            return prim.getAsNumber();
+        } else if (prim.isString()) {
+            String s = prim.getAsString();
+            return isNumeric(s) ? new BigDecimal(s) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return e as a boolean if it is a boolean or the string true or false
+     * in any case, otherwise null.
+     */
+    static Boolean toBoolean(JsonElement e) {
+        if (!(e instanceof JsonPrimitive)) {
+            return null;
+        }
+        JsonPrimitive prim = (JsonPrimitive) e;
+        if (prim.isBoolean()) {
+            return prim.getAsBoolean();
+        } else if (prim.isString()) {
+            String s = prim.getAsString();
+            if (s.equalsIgnoreCase("true")) {
+                return Boolean.TRUE;
+            } else if (s.equalsIgnoreCase("false")) {
+                return Boolean.FALSE;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return n as a BigDecimal, or null if it is infinite or NaN.
+     */
+    static BigDecimal toBigDecimal(Number n) {
+        if (n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        } else if (n instanceof BigInteger) {
+            return new BigDecimal((BigInteger) n);
+        } else if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+            return BigDecimal.valueOf(n.longValue());
+        }
+        String s = n.toString();
+        return isNumeric(s) ? new BigDecimal(s) : null;
+    }
+
+    /**
+     * @return True if s is a decimal number BigDecimal can parse: an optional
+     * sign, digits with an optional fraction, and an optional exponent.
+     */
+    static boolean isNumeric(String s) {
+        int len = s.length();
+        int i = 0;
+        if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+            digits++;
+        }
+        if (i < len && s.charAt(i) == '.') {
+            i++;
+            while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                i++;
+            }
+            int expStart = i;
+            while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            // BigDecimal rejects exponents that do not fit in an int.
+            if (i == expStart || i - expStart > 9) {
+                return false;
             }
-            return e.getAsBigDecimal();
-        } catch (IllegalStateException e) {
-            return defValue;
         }
+        return i == len;
     }
 
+    /**
+     * @return A map backed by the object at key, or null if there is no
+     * object there. The map is read-only while the config is still a compact
+     * tape, since the object is then a copy.
+     */
     public Map<String, Object> getAsMap(String key) {
+        boolean copy = deferred instanceof TapeJsonRoot;
         JsonElement e = get(key);
         if (!(e instanceof JsonObject)) {
             return null;
         }
-        return new MapWrapper(e.getAsJsonObject());
+        return new MapWrapper(e.getAsJsonObject(), copy);
     }
 
+    /**
+     * @return A list backed by the array at key, or null if there is no
+     * array there. The list is read-only while the config is still a compact
+     * tape, since the array is then a copy.
+     */
     public List<Object> getAsList(String key) {
+        boolean copy = deferred instanceof TapeJsonRoot;
         JsonElement e = get(key);
         if (!(e instanceof JsonArray)) {
             return null;
         }
-        return new ListWrapper(e.getAsJsonArray());
+        return new ListWrapper(e.getAsJsonArray(), copy);
+    }
+
+    /**
+     * Finds every element matching a query, such as
+     * {@code servers[*].port} or {@code ..port}. See JsonQuery for the
+     * syntax. The query is compiled once and cached, and the stream walks
+     * the tree lazily as it is consumed. It may be made parallel to split
+     * the walk over large arrays.
+     * @param query A key that may contain wildcards, slices and descents.
+     * @return The matching elements in depth-first order.
+     * @throws IllegalArgumentException If the query is malformed.
+     */
+    public Stream<JsonElement> query(String query) {
+        return query(JsonQuery.compile(query));
+    }
+
+    /**
+     * @see #query(String)
+     */
+    public Stream<JsonElement> query(JsonQuery query) {
+        // Plain leading steps are resolved like get, so a lazily loaded
+        // config only builds the subtree the query searches.
+        return query.stream(get(query.prefix), query.prefix.length());
+    }
+
+    /**
+     * Builds an instance of type from the object at key, in one pass over
+     * its members. Members the object does not have, or has with the wrong
+     * type, keep the defaults given by type's no-argument constructor (see
+     * Binder for what classes and records can be bound). The binder for each
+     * class is built once and shared.
+     * @param key The path of the object.
+     * @param type The class to bind to.
+     * @return A new instance, with only default values if there is no object
+     * at key.
+     * @throws IllegalArgumentException If type can not be bound.
+     */
+    public <T> T bind(String key, Class<T> type) {
+        return Binder.of(type).read(get(key));
+    }
+
+    /**
+     * Like bind, but the returned Binding rebinds whenever the object at key
+     * or anything in it changes through set, update or a reload.
+     * @throws IllegalArgumentException If type can not be bound.
+     */
+    public <T> Binding<T> bindLive(String key, Class<T> type) {
+        return new Binding<>(this, key, Binder.of(type));
+    }
+
+    /**
+     * Looks up every key of a batch in one walk, visiting each object or
+     * array shared by several keys once.
+     * @param keys The compiled keys.
+     * @param defaults One default per key. A value is converted to the class
+     * of its default (a boxed primitive, String, Character, BigInteger,
+     * BigDecimal, an enum or a JsonElement type), and the default is used if
+     * the key is missing or holds a value of another kind. A null default
+     * returns the element at the key as is.
+     * @return The values in the same order as the keys.
+     */
+    public Object[] getAll(KeyBatch keys, Object... defaults) {
+        if (defaults.length != keys.size()) {
+            throw new IllegalArgumentException("Expected " + keys.size() + " defaults, got " + defaults.length);
+        }
+        JsonElement[] elements = keys.resolve(this);
+        Object[] values = new Object[elements.length];
+        for (int i = 0; i < elements.length; ++i) {
+            values[i] = convert(elements[i], defaults[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Like getAll(KeyBatch, Object...) for a batch used once.
+     * @param defaults The keys to look up, each mapped to its default.
+     * @return The keys mapped to their values, in the iteration order of
+     * defaults.
+     */
+    public Map<String, Object> getAll(Map<String, ?> defaults) {
+        String[] keys = new String[defaults.size()];
+        Object[] defs = new Object[keys.length];
+        int i = 0;
+        for (Map.Entry<String, ?> ent : defaults.entrySet()) {
+            keys[i] = ent.getKey();
+            defs[i++] = ent.getValue();
+        }
+        Object[] values = getAll(KeyBatch.of(keys), defs);
+        Map<String, Object> result = new LinkedHashMap<>(keys.length * 2);
+        for (i = 0; i < keys.length; ++i) {
+            result.put(keys[i], values[i]);
+        }
+        return result;
+    }
+
+    private static Object convert(JsonElement e, Object defValue) {
+        if (defValue == null || e == null) {
+            return e != null ? e : defValue;
+        }
+        Class<?> type = defValue instanceof Enum ? ((Enum<?>) defValue).getDeclaringClass() : defValue.getClass();
+        if (type.isInstance(e)) {
+            return e;
+        }
+        if (e instanceof JsonPrimitive) {
+            Object v = Binder.convertPrimitive((JsonPrimitive) e, type);
+            if (v != null) {
+                return v;
+            }
+        }
+        return defValue;
     }
 
     public JsonElement get(String key) {
-        JsonAccessor accessor = getAccessor(key);
-        return accessor.get(root);
+        return get(getAccessor(key));
+    }
+
+    JsonElement get(JsonAccessor accessor) {
+        DeferredRoot d = deferred;
+        if (d != null) {
+            return d.resolve(accessor);
+        }
+        JsonElement r = root;
+        if (r == null) {
+            // A lazy load swapped the tree between the two reads.
+            return get(accessor);
+        }
+        return accessor.get(r);
     }
 
     public void set(String key, Object value) {
         JsonAccessor accessor = getAccessor(key);
-        if (key == "") {
-            JsonElement e = gson.toJsonTree(value);
-            if (e.isJsonObject() || e.isJsonArray()) {
+        JsonElement e = gson.toJsonTree(value);
+        synchronized (this) {
+            if (key == "") {
+                if (!e.isJsonObject() && !e.isJsonArray()) {
+                    return;
+                }
+                materializedRoot();
                 root = e;
+            } else {
+                accessor.set(materializedRoot(), e);
+            }
+        }
+        changed(accessor);
+    }
+
+    /**
+     * Builds the whole tree as Gson elements if it was loaded lazily.
+     * @return The root element.
+     */
+    protected JsonElement materializedRoot() {
+        DeferredRoot d = deferred;
+        if (d != null) {
+            synchronized (this) {
+                if (deferred == d) {
+                    root = d.materialize();
+                    deferred = null;
+                }
             }
-        } else {
-            accessor.set(root, gson.toJsonTree(value));
         }
+        return root;
     }
 
-    private JsonAccessor getAccessor(String key) {
-        JsonAccessor accessor = accessorMap.get(key);
+    static JsonAccessor getAccessor(String key) {
+        if (key.isEmpty()) {
+            return ROOT_ACCESSOR;
+        }
+        JsonAccessor accessor = accessorCache.get(key);
         if (accessor != null) {
             return accessor;
         }
+        return accessorCache.put(key, parseAccessor(key));
+    }
+
+    /**
+     * @return The cache of parsed keys shared by all JsonConfigs, for reading
+     * its hit/miss/eviction counts or changing its capacity.
+     */
+    public static ClockCache<String, ?> getAccessorCache() {
+        return accessorCache;
+    }
+
+    /**
+     * Parses a key into the steps used to resolve it. Map steps are stored as
+     * their key with an index of -1, array steps as a null key and their
+     * index.
+     */
+    static JsonAccessor parseAccessor(String key) {
         List<String> keys = new ArrayList<>(16);
+        int[] indices = new int[16];
         int keylen = key.length();
         StringBuilder sb = new StringBuilder();
+        int index = 0;
         int mode = -1;
         for (int ci = 0; ci < keylen; ++ci) {
             char c = key.charAt(ci);
             switch (mode) {
                 case -1:
                     if (c == '[') {
-                        sb.append(c);
                         mode = 2;
                     } else if (Character.isJavaIdentifierPart(c)) {
                         sb.append(c);
@@ -348,21 +727,15 @@ public class JsonConfig {
                     break;
                 case 0:
                 case 1:
-                    if (c == '.') {
-                        if (sb.length() == 0) {
-                            throw new IllegalArgumentException("Missing identifier in key at index " + ci + ": " + key);
-                        }
-                        keys.add(sb.toString());
-                        sb.setLength(0);
-                        mode = 0;
-                    } else if (c == '[') {
-                        if (sb.length() == 0) {
-                            throw new IllegalArgumentException("Missing identifier in key at index " + ci + ": " + key);
+                    if (c == '.' || c == '[') {
+                        if (mode == 0) {
+                            if (sb.length() == 0) {
+                                throw new IllegalArgumentException("Missing identifier in key at index " + ci + ": " + key);
+                            }
+                            indices = addStep(keys, indices, sb.toString(), -1);
+                            sb.setLength(0);
                         }
-                        keys.add(sb.toString());
-                        sb.setLength(0);
-                        sb.append(c);
-                        mode = 2;
+                        mode = c == '.' ? 0 : 2;
                     } else if (mode == 0 && Character.isJavaIdentifierPart(c)) {
                         sb.append(c);
                     } else {
@@ -370,21 +743,23 @@ public class JsonConfig {
                     }
                     break;
                 case 2:
-                    if (Character.isDigit(c)) {
-                        sb.append(c);
+                    if (c >= '0' && c <= '9') {
+                        index = c - '0';
                         mode = 3;
                     } else if (c == '"') {
-                        sb.append(c);
                         mode = 4;
                     } else {
                         throw new IllegalArgumentException("Expected String or number after [ at index " + ci + ": " + key);
                     }
                     break;
                 case 3:
-                    if (Character.isDigit(c)) {
-                        sb.append(c);
+                    if (c >= '0' && c <= '9') {
+                        if (index > (Integer.MAX_VALUE - (c - '0')) / 10) {
+                            throw new IllegalArgumentException("Array index too large at index " + ci + ": " + key);
+                        }
+                        index = index * 10 + (c - '0');
                     } else if (c == ']') {
-                        sb.append(c);
+                        indices = addStep(keys, indices, null, index);
                         mode = 1;
                     } else {
                         throw new IllegalArgumentException("Expected number or closing bracket at index " + ci + ": " + key);
@@ -394,7 +769,6 @@ public class JsonConfig {
                     if (c == '\\') {
                         mode = 6;
                     } else if (c == '"') {
-                        sb.append(c);
                         mode = 5;
                     } else {
                         sb.append(c);
@@ -402,7 +776,8 @@ public class JsonConfig {
                     break;
                 case 5:
                     if (c == ']') {
-                        sb.append(c);
+                        indices = addStep(keys, indices, sb.toString(), -1);
+                        sb.setLength(0);
                         mode = 1;
                     } else {
                         throw new IllegalArgumentException("Expected closing bracket at index " + ci + ": " + key);
@@ -433,56 +808,436 @@ public class JsonConfig {
                         default:
                             throw new IllegalArgumentException("Unsupported escape at index " + (ci - 1) + ": " + key);
                     }
+                    mode = 4;
                     break;
             }
         }
-        if ((mode != 0 && mode != 1) || sb.length() == 0) {
+        if (mode == 0 && sb.length() != 0) {
+            indices = addStep(keys, indices, sb.toString(), -1);
+        } else if (mode != 1) {
             throw new IllegalArgumentException("Reached end of JSON key while parsing: " + key);
         }
-        keys.add(sb.toString());
-        List<BiFunction<JsonElement, Object, JsonElement>> accessList = new ArrayList<>(16);
-        List<Object> args = new ArrayList<>(16);
-        for (String s : keys) {
-            if (s.matches("\\[\\d+\\]")) {
-                accessList.add(ARRAY_FUNC);
-                args.add(Integer.parseInt(s.substring(1, s.length() - 1)));
-            } else if (s.matches("\\[\\\".*\\\"\\]")) {
-                args.add(s.substring(2, s.length() - 2));
-                accessList.add(MAP_FUNC);
-            } else {
-                args.add(s);
-                accessList.add(MAP_FUNC);
+        return new JsonAccessor(keys.toArray(new String[keys.size()]), Arrays.copyOf(indices, keys.size()));
+    }
+
+    private static int[] addStep(List<String> keys, int[] indices, String key, int index) {
+        if (keys.size() == indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        indices[keys.size()] = index;
+        keys.add(key);
+        return indices;
+    }
+
+    public JsonElement getRootElement() {
+        return materializedRoot();
+    }
+
+    @Override
+    public String toString() {
+        return materializedRoot().toString();
+    }
+    
+    public boolean save(File file) throws IOException {
+        return save(file, false);
+    }
+
+    /**
+     * Streams the config as UTF-8 JSON to a temporary file next to file,
+     * syncs it to disk, then moves it over file. If anything fails, file is
+     * left as it was.
+     * @param file The file to write.
+     * @param compact True to write without indentation or line breaks.
+     * @return True if the file was written.
+     * @throws IOException If the file could not be written.
+     */
+    public boolean save(File file, boolean compact) throws IOException {
+        write(materializedRoot(), file, compact);
+        return true;
+    }
+
+    static void write(final JsonElement root, File file, final boolean compact) throws IOException {
+        writeAtomically(file, new ChannelWriter() {
+            @Override
+            public void write(FileChannel channel) throws IOException {
+                try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                        Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 8192)))) {
+                    if (!compact) {
+                        writer.setIndent("  ");
+                    }
+                    gson.toJson(root, writer);
+                    writer.flush();
+                    channel.force(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves this config in a binary form that loadBinary reads back without
+     * parsing: the compact tape loadCompact builds, with its key dictionary,
+     * written as is. Loading it gives exactly the same tree as loading the
+     * JSON form. The file is replaced atomically, like save.
+     */
+    public void saveBinary(File file) throws IOException {
+        DeferredRoot d = deferred;
+        final TapeJsonRoot tape = d instanceof TapeJsonRoot && ((TapeJsonRoot) d).isWhole()
+                ? (TapeJsonRoot) d
+                : TapeJsonRoot.of(materializedRoot());
+        writeAtomically(file, new ChannelWriter() {
+            @Override
+            public void write(FileChannel channel) throws IOException {
+                tape.write(channel);
+                channel.force(true);
+            }
+        });
+    }
+
+    /**
+     * Loads a file written by saveBinary. The file is memory mapped and the
+     * tape in it is used in place, so loading only reads the key dictionary.
+     * The config then behaves as if loaded with loadCompact. The file must
+     * not be modified while the config still reads from it.
+     * @throws IOException If the file can not be read or is not a binary
+     * snapshot.
+     */
+    public void loadBinary(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + file);
+        }
+        DeferredRoot d;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            d = TapeJsonRoot.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        replaceRoot(null, d);
+    }
+
+    /**
+     * Writes to a temporary file next to file and then moves it over file,
+     * so readers never see a partly written file. The temporary file is
+     * created with the default permissions, like a file written in place,
+     * and takes the permissions and owner of file if it already exists.
+     */
+    private static void writeAtomically(File file, ChannelWriter out) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = createSibling(target);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                out.write(channel);
+            }
+            copyAttributes(target, tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
         }
-        List<BiFunction<JsonElement, Object, JsonElement>> existingList = accessFunctionMap.get(accessList.toString());
-        if (existingList == null) {
-            accessFunctionMap.put(accessList.toString(), accessList);
-        } else {
-            accessList = existingList;
+    }
+
+    /**
+     * Creates an empty file with a unique name next to target. Unlike
+     * Files.createTempFile, this does not restrict the file to its owner.
+     */
+    private static Path createSibling(Path target) throws IOException {
+        while (true) {
+            Path tmp = target.resolveSibling(target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(tmp);
+            } catch (FileAlreadyExistsException e) {
+            }
         }
-        accessor = new JsonAccessor(accessList, args);
-        accessorMap.put(key, accessor);
-        return accessor;
     }
 
-    public JsonElement getRootElement() {
-        return root;
+    /**
+     * Gives to the POSIX permissions, owner and group of from, if from exists
+     * on a POSIX file system. The owner and group are only changed where the
+     * process is allowed to.
+     */
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (fromView == null || toView == null || !Files.exists(from)) {
+            return;
+        }
+        PosixFileAttributes attrs = fromView.readAttributes();
+        toView.setPermissions(attrs.permissions());
+        try {
+            toView.setGroup(attrs.group());
+            toView.setOwner(attrs.owner());
+        } catch (IOException e) {
+            // Not permitted, the file keeps this process's user and group.
+        }
+    }
+
+    /**
+     * Starts saving this config to file in the background whenever it is
+     * changed through set, at most once per interval. Writes happen on a
+     * shared daemon thread, never on the thread calling set, and any pending
+     * changes are written when the JVM shuts down. Replaces any previous auto
+     * save file. A write that fails is retried after a growing delay, from
+     * one second up to a minute, independent of interval.
+     * <p>
+     * A plain JsonConfig is copied while holding its monitor before being
+     * written, set holds the same monitor. A ConcurrentJsonConfig is written
+     * from its current snapshot without copying.
+     * @param file The file to save to.
+     * @param interval The minimum time between writes.
+     * @param unit The unit of interval.
+     */
+    public void setAutoSave(File file, long interval, TimeUnit unit) {
+        AutoSaver old = autoSaver;
+        autoSaver = new AutoSaver(this, file, unit.toNanos(interval));
+        if (old != null) {
+            old.stop();
+        }
+    }
+
+    /**
+     * Stops auto saving.
+     * @return A future completed once any pending changes have been written.
+     */
+    public CompletableFuture<Void> stopAutoSave() {
+        AutoSaver old = autoSaver;
+        autoSaver = null;
+        return old == null ? CompletableFuture.<Void>completedFuture(null) : old.stop();
+    }
+
+    /**
+     * Writes any changes not yet auto saved without waiting for the interval.
+     * @return A future completed once the changes made before this call have
+     * been written, or exceptionally if the write failed.
+     */
+    public CompletableFuture<Void> flush() {
+        AutoSaver a = autoSaver;
+        return a == null ? CompletableFuture.<Void>completedFuture(null) : a.flush();
+    }
+
+    /**
+     * @return True if auto save is on and there are changes not yet written.
+     */
+    public boolean isDirty() {
+        AutoSaver a = autoSaver;
+        return a != null && a.isDirty();
+    }
+
+    /**
+     * Called after the value at path (and everything under it) has been
+     * replaced.
+     */
+    void changed(JsonAccessor path) {
+        changed(Collections.singletonList(path));
+    }
+
+    /**
+     * Called after several values have been replaced at once. Listeners are
+     * notified in one batch.
+     */
+    void changed(List<JsonAccessor> paths) {
+        evictCaches(paths);
+        AutoSaver a = autoSaver;
+        if (a != null) {
+            a.markDirty();
+        }
+        fireListeners(paths);
+    }
+
+    /**
+     * Starts reloading this config whenever file is modified or replaced.
+     * Reloads happen on a background thread. The new tree is compared with
+     * the current one, unchanged subtrees are kept, and the root is swapped
+     * in one step. Listeners on paths that changed are then notified.
+     * Replaces any previously watched file.
+     * @param file The file to watch, normally the one this config was loaded
+     * from.
+     * @throws IOException If the file's directory can not be watched.
+     */
+    public void watch(File file) throws IOException {
+        ConfigWatcher old = watcher;
+        watcher = new ConfigWatcher(this, file.toPath());
+        if (old != null) {
+            old.stop();
+        }
+    }
+
+    public void stopWatching() {
+        ConfigWatcher old = watcher;
+        watcher = null;
+        if (old != null) {
+            old.stop();
+        }
+    }
+
+    /**
+     * Registers a listener to be called with the value at path (null if there
+     * is none) when a set or reload changes that value, anything under it, or
+     * anything above it, and whenever the whole tree is loaded. Listeners are
+     * indexed by path, so a change only costs the depth of its path plus the
+     * listeners it actually reaches. Each listener is called at most once per
+     * set, update, reload or load.
+     * @param path A key in the same syntax as get.
+     * @param listener The listener.
+     */
+    public void addListener(String path, Consumer<JsonElement> listener) {
+        listeners.add(getAccessor(path), listener);
+    }
+
+    public boolean removeListener(String path, Consumer<JsonElement> listener) {
+        return listeners.remove(getAccessor(path), listener);
+    }
+
+    /**
+     * Sets where listeners are called. With no executor (the default) they
+     * run on the thread that made the change, after the change is visible.
+     * With an executor each batch of notifications is handed to it as one
+     * task, and listeners receive the value as of when that task runs.
+     * @param executor The executor, or null to call listeners directly.
+     */
+    public void setListenerExecutor(Executor executor) {
+        listenerExecutor = executor;
+    }
+
+    /**
+     * Applies an RFC 6902 JSON Patch. The operations run in order, as the
+     * RFC requires, against a copy of the path each one changes, with
+     * objects and arrays copied once per patch and shared by the operations
+     * that pass through them. The patched tree replaces the current one only
+     * if every operation succeeds, so a failing patch changes nothing.
+     * Listeners are notified once for the whole patch. The patch's values
+     * become part of this config and must not be modified afterwards.
+     * @param patch An array of operations.
+     * @throws IllegalArgumentException If an operation is malformed, refers
+     * to a path that does not exist, or is a test that fails.
+     */
+    public void applyPatch(JsonArray patch) {
+        patch(JsonPatch.of(patch));
+    }
+
+    /**
+     * @see #applyPatch(JsonArray)
+     * @throws JsonParseException If patch is not valid JSON.
+     * @throws IllegalArgumentException If patch is not an array or can not
+     * be applied.
+     */
+    public void applyPatch(String patch) {
+        JsonElement e = JsonParser.parseString(patch);
+        if (!e.isJsonArray()) {
+            throw new IllegalArgumentException("JSON Patch is not an array");
+        }
+        patch(JsonPatch.of(e.getAsJsonArray()));
+    }
+
+    /**
+     * Applies an RFC 7386 JSON Merge Patch: members of patch replace the
+     * members of the same name, objects are merged recursively, and null
+     * members remove what they name. Only the objects the patch changes are
+     * copied, and the result replaces the current tree in one step.
+     * @param patch The merge patch, normally an object.
+     * @throws IllegalArgumentException If patch would replace the whole tree
+     * with a primitive.
+     */
+    public void applyMergePatch(JsonElement patch) {
+        patch(JsonPatch.merge(patch));
+    }
+
+    /**
+     * @see #applyMergePatch(JsonElement)
+     * @throws JsonParseException If patch is not valid JSON.
+     */
+    public void applyMergePatch(String patch) {
+        patch(JsonPatch.merge(JsonParser.parseString(patch)));
+    }
+
+    /**
+     * Compares this config with target, for example to replicate changes to
+     * another copy of this config.
+     * @return An RFC 6902 JSON Patch that turns this config's tree into
+     * target's. Values in it are copies.
+     */
+    public JsonArray diff(JsonConfig target) {
+        return JsonPatch.diff(materializedRoot(), target.materializedRoot());
+    }
+
+    private void patch(JsonPatch patch) {
+        if (patchRoot(patch)) {
+            changed(patch.changes);
+        }
+    }
+
+    /**
+     * @return True if the root was replaced.
+     */
+    boolean patchRoot(JsonPatch patch) {
+        synchronized (this) {
+            JsonElement old = materializedRoot();
+            JsonElement patched = patch.applyTo(old);
+            root = patched;
+            return patched != old;
+        }
+    }
+
+    /**
+     * Replaces the tree with parsed, keeping unchanged subtrees, and notifies
+     * listeners of what changed.
+     */
+    void reload(JsonElement parsed) {
+        List<JsonAccessor> changes = new ArrayList<>();
+        if (mergeRoot(parsed, changes)) {
+            evictCaches(changes);
+            fireListeners(changes);
+        }
+    }
+
+    /**
+     * @return True if the root was replaced.
+     */
+    boolean mergeRoot(JsonElement parsed, List<JsonAccessor> changes) {
+        synchronized (this) {
+            JsonElement old = materializedRoot();
+            JsonElement merged = JsonDiff.merge(old, parsed, changes);
+            root = merged;
+            return merged != old;
+        }
+    }
+
+    void fireListeners(List<JsonAccessor> changes) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final Set<ListenerTrie.Node> hits = listeners.collect(changes);
+        if (hits.isEmpty()) {
+            return;
+        }
+        Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                for (ListenerTrie.Node n : hits) {
+                    JsonElement value = get(n.path);
+                    for (Consumer<JsonElement> l : n.listeners) {
+                        l.accept(value);
+                    }
+                }
+            }
+        };
+        Executor ex = listenerExecutor;
+        if (ex != null) {
+            ex.execute(dispatch);
+        } else {
+            dispatch.run();
+        }
     }
 
-    @Override
-    public String toString() {
-        return root.toString();
-    }
-    
-    public boolean save(File file) throws IOException {
-        boolean noProbs = true;
-        try (FileWriter writer = new FileWriter(file)) {
-            writer.write(gson.toJson(root));
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * @return A tree equal to this config's that will not change while it is
+     * being saved in the background.
+     */
+    JsonElement snapshot() {
+        synchronized (this) {
+            return materializedRoot().deepCopy();
         }
-        return noProbs;
     }
 
     public boolean load(File file) throws FileNotFoundException, JsonParseException, IOException {
@@ -490,26 +1245,199 @@ public class JsonConfig {
             file.createNewFile();
             try (FileWriter fw = new FileWriter(file)) {
                 fw.write("{}");
-                fw.close();
             } catch (Exception e) {
             }
         }
-        JsonParser parser = new JsonParser();
         boolean noProbs = true;
-        try (FileReader reader = new FileReader(file)) {
-            root = parser.parse(reader).getAsJsonObject();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            replaceRoot(JsonParser.parseReader(reader).getAsJsonObject(), null);
         } catch (FileNotFoundException | JsonParseException e) {
             throw e;
         }
         return noProbs;
     }
 
-    public static final class MapWrapper implements Map<String, Object> {
+    /**
+     * Loads the file into a compact tape of longs instead of a Gson tree,
+     * typically a small fraction of the heap a Gson tree of the same
+     * document takes. Keys are stored once each, and numbers, booleans and
+     * nulls are stored inline. Getters and getSubConfig read the tape
+     * directly and build Gson elements only for the values they return.
+     * Setting a value, saving, or getting the root element builds the whole
+     * tree as Gson elements. Elements returned by get before then are
+     * copies, modifying them does not change the config, and maps and lists
+     * returned by getAsMap and getAsList are read-only.
+     * @param file The file to load, created containing {} if it does not
+     * exist.
+     * @return True if the file was loaded.
+     */
+    public boolean loadCompact(File file) throws IOException, JsonParseException {
+        if (!file.exists() || file.length() == 0) {
+            return load(file);
+        }
+        DeferredRoot d;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            d = TapeJsonRoot.parse(reader);
+        }
+        replaceRoot(null, d);
+        return true;
+    }
+
+    /**
+     * Loads the file without parsing it up front. The file is memory mapped
+     * and only indexed one object or array at a time as keys reach into it,
+     * and only the values keys actually reach are built as Gson elements.
+     * Setting a value, saving, or getting the root element builds the whole
+     * tree. The file must not be modified while the config is still lazy.
+     * Indexing modifies the lazy tree, so lookups on it are synchronized:
+     * until the tree is built, readers of a ConcurrentJsonConfig loaded this
+     * way may wait for each other.
+     * @param file The file to load, created containing {} if it does not
+     * exist.
+     * @return True if the file was loaded.
+     */
+    public boolean loadLazy(File file) throws IOException, JsonParseException {
+        if (!file.exists() || file.length() == 0) {
+            return load(file);
+        }
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException("File too large to load lazily: " + file);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            replaceRoot(null, new LazyJsonRoot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+        return true;
+    }
+
+    /**
+     * A bound instance that is replaced each time its part of the config
+     * changes. Instances are never modified after they are published, so a
+     * reader that needs several consistent values should call get once.
+     */
+    public static final class Binding<T> implements Consumer<JsonElement> {
+
+        private final JsonConfig config;
+        private final String key;
+        private final Binder<T> binder;
+        private volatile T value;
+
+        private Binding(JsonConfig config, String key, Binder<T> binder) {
+            this.config = config;
+            this.key = key;
+            this.binder = binder;
+            config.addListener(key, this);
+            this.value = binder.read(config.get(key));
+        }
+
+        /**
+         * @return The instance bound from the config's current values.
+         */
+        public T get() {
+            return value;
+        }
+
+        /**
+         * Stops following changes. get keeps returning the last instance.
+         */
+        public void close() {
+            config.removeListener(key, this);
+        }
+
+        @Override
+        public void accept(JsonElement e) {
+            value = binder.read(e);
+        }
+    }
+
+    /**
+     * Prepares o for comparison with elements by matches.
+     * @return The element to compare with equals, or null if o is null, a
+     * string, a boolean, a character or a number, which matches compares
+     * without building an element.
+     */
+    private static JsonElement comparable(Object o) {
+        if (o == null || o instanceof String || o instanceof Boolean || o instanceof Number || o instanceof Character) {
+            return null;
+        } else if (o instanceof JsonElement) {
+            return (JsonElement) o;
+        } else if (o instanceof MapWrapper) {
+            return ((MapWrapper) o).wrapped;
+        } else if (o instanceof ListWrapper) {
+            return ((ListWrapper) o).wrapped;
+        }
+        return gson.toJsonTree(o);
+    }
+
+    /**
+     * @param tree comparable(o).
+     * @return True if e is what o would be stored as.
+     */
+    private static boolean matches(JsonElement e, Object o, JsonElement tree) {
+        if (tree != null) {
+            return tree.equals(e);
+        } else if (o == null) {
+            return e == null || e.isJsonNull();
+        } else if (!(e instanceof JsonPrimitive)) {
+            return false;
+        }
+        JsonPrimitive prim = (JsonPrimitive) e;
+        if (o instanceof String) {
+            return prim.isString() && prim.getAsString().equals(o);
+        } else if (o instanceof Character) {
+            if (!prim.isString()) {
+                return false;
+            }
+            String s = prim.getAsString();
+            return s.length() == 1 && s.charAt(0) == (Character) o;
+        } else if (o instanceof Boolean) {
+            return prim.isBoolean() && prim.getAsBoolean() == (Boolean) o;
+        } else if (!prim.isNumber()) {
+            return false;
+        }
+        // Same rules as JsonPrimitive.equals.
+        Number a = prim.getAsNumber();
+        Number b = (Number) o;
+        if (isIntegral(a) && isIntegral(b)) {
+            return a instanceof BigInteger || b instanceof BigInteger
+                    ? toBigInteger(a).equals(toBigInteger(b))
+                    : a.longValue() == b.longValue();
+        }
+        double da = a.doubleValue();
+        double db = b.doubleValue();
+        return da == db || (Double.isNaN(da) && Double.isNaN(db));
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof BigInteger || n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    private static BigInteger toBigInteger(Number n) {
+        return n instanceof BigInteger ? (BigInteger) n : BigInteger.valueOf(n.longValue());
+    }
+
+    /**
+     * A Map view of a JsonObject. Values are converted as they are read, and
+     * keySet, values and entrySet are live views of the object rather than
+     * copies.
+     */
+    public static final class MapWrapper extends AbstractMap<String, Object> {
 
         private JsonObject wrapped;
+        private final boolean readOnly;
 
         public MapWrapper(JsonObject wrapped) {
+            this(wrapped, false);
+        }
+
+        MapWrapper(JsonObject wrapped, boolean readOnly) {
             this.wrapped = wrapped;
+            this.readOnly = readOnly;
+        }
+
+        private void checkWritable() {
+            if (readOnly) {
+                throw new UnsupportedOperationException("Cannot modify read-only view of JsonObject.");
+            }
         }
 
         @Override
@@ -532,9 +1460,9 @@ public class JsonConfig {
 
         @Override
         public boolean containsValue(Object value) {
-            JsonElement je = gson.toJsonTree(value);
+            JsonElement tree = comparable(value);
             for (Map.Entry<String, JsonElement> ent : wrapped.entrySet()) {
-                if (je.equals(ent.getValue())) {
+                if (matches(ent.getValue(), value, tree)) {
                     return true;
                 }
             }
@@ -546,85 +1474,157 @@ public class JsonConfig {
             if (!(key instanceof String)) {
                 return null;
             }
-            return unJson(wrapped.get((String) key));
+            return unJson(wrapped.get((String) key), readOnly);
         }
 
         @Override
         public Object put(String key, Object value) {
+            checkWritable();
             JsonElement je = wrapped.get(key);
             wrapped.add(key, gson.toJsonTree(value));
-            return unJson(je);
+            return unJson(je, readOnly);
         }
 
         @Override
         public Object remove(Object key) {
+            checkWritable();
             if (!(key instanceof String)) {
                 return null;
             }
-            return unJson(wrapped.remove((String) key));
-        }
-
-        @Override
-        public void putAll(Map<? extends String, ? extends Object> m) {
-            for (Map.Entry<? extends String, ? extends Object> ent : m.entrySet()) {
-                put(ent.getKey(), ent.getValue());
-            }
+            return unJson(wrapped.remove((String) key), readOnly);
         }
 
         @Override
         public void clear() {
-            Set<String> props = new HashSet<>();
-            for (Map.Entry<String, JsonElement> ent : wrapped.entrySet()) {
-                props.add(ent.getKey());
-            }
-            for (String s : props) {
-                remove(s);
-            }
+            checkWritable();
+            wrapped.entrySet().clear();
         }
 
         @Override
         public Set<String> keySet() {
-            Set<String> props = new HashSet<>();
-            for (Map.Entry<String, JsonElement> ent : wrapped.entrySet()) {
-                props.add(ent.getKey());
-            }
-            return props;
+            return new AbstractSet<String>() {
+                @Override
+                public Iterator<String> iterator() {
+                    final Iterator<Map.Entry<String, JsonElement>> it = wrapped.entrySet().iterator();
+                    return new Iterator<String>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public String next() {
+                            return it.next().getKey();
+                        }
+
+                        @Override
+                        public void remove() {
+                            checkWritable();
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return wrapped.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    checkWritable();
+                    return o instanceof String && wrapped.remove((String) o) != null;
+                }
+
+                @Override
+                public void clear() {
+                    MapWrapper.this.clear();
+                }
+            };
         }
 
         @Override
         public Collection<Object> values() {
-            List<Object> props = new ArrayList<>(wrapped.size());
-            for (Map.Entry<String, JsonElement> ent : wrapped.entrySet()) {
-                props.add(ent.getValue());
-            }
-            return props;
+            return new AbstractCollection<Object>() {
+                @Override
+                public Iterator<Object> iterator() {
+                    final Iterator<Map.Entry<String, JsonElement>> it = wrapped.entrySet().iterator();
+                    return new Iterator<Object>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Object next() {
+                            return unJson(it.next().getValue(), readOnly);
+                        }
+
+                        @Override
+                        public void remove() {
+                            checkWritable();
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return wrapped.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsValue(o);
+                }
+
+                @Override
+                public void clear() {
+                    MapWrapper.this.clear();
+                }
+            };
         }
 
         @Override
         public Set<Entry<String, Object>> entrySet() {
-            Set<Map.Entry<String, Object>> props = new HashSet<>();
-            for (final Map.Entry<String, JsonElement> ent : wrapped.entrySet()) {
-                props.add(new Entry<String, Object>() {
-
-                    @Override
-                    public Object setValue(Object value) {
-                        Object o = unJson(ent.getValue());
-                        ent.setValue(gson.toJsonTree(value));
-                        return o;
-                    }
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    final Iterator<Map.Entry<String, JsonElement>> it = wrapped.entrySet().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
 
-                    @Override
-                    public Object getValue() {
-                        return unJson(ent.getValue());
-                    }
+                        @Override
+                        public Entry<String, Object> next() {
+                            return new EntryView(it.next());
+                        }
 
-                    @Override
-                    public String getKey() {
-                        return ent.getKey();
-                    }
-                });
-            }
-            return props;
+                        @Override
+                        public void remove() {
+                            checkWritable();
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return wrapped.size();
+                }
+
+                @Override
+                public void clear() {
+                    MapWrapper.this.clear();
+                }
+            };
         }
 
         @Override
@@ -638,19 +1638,80 @@ public class JsonConfig {
                 comma = true;
                 sb.append(ent.getKey());
                 sb.append('=');
-                sb.append(ent.getValue().toString());
+                sb.append(ent.getValue());
             }
             sb.append('}');
             return sb.toString();
         }
+
+        /**
+         * A member of the wrapped object, its value is converted when read.
+         */
+        private final class EntryView implements Entry<String, Object> {
+
+            private final Map.Entry<String, JsonElement> ent;
+
+            EntryView(Map.Entry<String, JsonElement> ent) {
+                this.ent = ent;
+            }
+
+            @Override
+            public String getKey() {
+                return ent.getKey();
+            }
+
+            @Override
+            public Object getValue() {
+                return unJson(ent.getValue(), readOnly);
+            }
+
+            @Override
+            public Object setValue(Object value) {
+                checkWritable();
+                Object o = unJson(ent.getValue(), readOnly);
+                ent.setValue(gson.toJsonTree(value));
+                return o;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return ent.getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return ent.getKey().hashCode() ^ Objects.hashCode(getValue());
+            }
+
+            @Override
+            public String toString() {
+                return ent.getKey() + "=" + getValue();
+            }
+        }
     }
 
-    public static final class ListWrapper implements List<Object> {
+    /**
+     * A List view of a JsonArray. Values are converted as they are read, and
+     * subList returns a live view of a range of the array.
+     */
+    public static final class ListWrapper extends AbstractList<Object> implements RandomAccess {
 
         private final JsonArray wrapped;
+        private final boolean readOnly;
 
-        private ListWrapper(JsonArray wrapped) {
+        ListWrapper(JsonArray wrapped, boolean readOnly) {
             this.wrapped = wrapped;
+            this.readOnly = readOnly;
+        }
+
+        private void checkWritable() {
+            if (readOnly) {
+                throw new UnsupportedOperationException("Cannot modify read-only view of JsonArray.");
+            }
         }
 
         @Override
@@ -665,157 +1726,142 @@ public class JsonConfig {
 
         @Override
         public boolean contains(Object o) {
-            JsonElement e = gson.toJsonTree(o);
-            for (int i = wrapped.size() - 1; i >= 0; --i) {
-                if (wrapped.get(i).equals(e)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        @Override
-        public Iterator<Object> iterator() {
-            return new Iterator<Object>() {
-                private final Iterator<JsonElement> wrappedIterator = wrapped.iterator();
-
-                @Override
-                public boolean hasNext() {
-                    return wrappedIterator.hasNext();
-                }
-
-                @Override
-                public Object next() {
-                    JsonElement n = wrappedIterator.next();
-                    return unJson(n);
-                }
-            };
+            return indexOf(o) >= 0;
         }
 
         @Override
         public Object[] toArray() {
             Object[] a = new Object[wrapped.size()];
             for (int i = a.length - 1; i >= 0; --i) {
-                a[i] = unJson(wrapped.get(i));
-            }
-            return a;
-        }
-
-        @Override
-        public <T> T[] toArray(T[] a) {
-            int size = wrapped.size();
-            if (a.length < size) {
-                return (T[]) Arrays.copyOf(toArray(), size, a.getClass());
-            }
-            if (a.length > size) {
-                a[size] = null;
+                a[i] = unJson(wrapped.get(i), readOnly);
             }
             return a;
         }
 
         @Override
         public boolean add(Object e) {
+            checkWritable();
             wrapped.add(gson.toJsonTree(e));
+            modCount++;
             return true;
         }
 
         @Override
         public boolean remove(Object o) {
-            JsonElement je = gson.toJsonTree(o);
-            int size = wrapped.size();
-            for (int i = 0; i < size; ++i) {
-                if (je.equals(wrapped.get(i))) {
-                    wrapped.remove(i);
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        @Override
-        public boolean containsAll(Collection<?> c) {
-            for (Object o : c) {
-                if (!contains(o)) {
-                    return false;
-                }
+            checkWritable();
+            int i = indexOf(o);
+            if (i < 0) {
+                return false;
             }
+            remove(i);
             return true;
         }
 
-        @Override
-        public boolean addAll(Collection<? extends Object> c) {
-            for (Object o : c) {
-                add(o);
-            }
-            return !c.isEmpty();
-        }
-
-        @Override
-        public boolean addAll(int index, Collection<? extends Object> c) {
-            for (Object o : c) {
-                add(index++, o);
-            }
-            return !c.isEmpty();
-        }
-
         @Override
         public boolean removeAll(Collection<?> c) {
-            boolean change = false;
-            for (Object o : c) {
-                change |= remove(o);
-            }
-            return change;
+            checkWritable();
+            return removeMatching(c, true);
         }
 
         @Override
         public boolean retainAll(Collection<?> c) {
+            checkWritable();
+            return removeMatching(c, false);
+        }
+
+        /**
+         * Removes every element that matches (or with match false, does not
+         * match) any object in c.
+         */
+        private boolean removeMatching(Collection<?> c, boolean match) {
+            Object[] objs = c.toArray();
+            JsonElement[] trees = new JsonElement[objs.length];
+            for (int i = 0; i < objs.length; ++i) {
+                trees[i] = comparable(objs[i]);
+            }
             boolean change = false;
             for (int i = wrapped.size() - 1; i >= 0; --i) {
-                if (!c.contains(unJson(wrapped.get(i)))) {
-                    remove(i);
+                JsonElement e = wrapped.get(i);
+                boolean found = false;
+                for (int j = 0; j < objs.length && !found; ++j) {
+                    found = matches(e, objs[j], trees[j]);
+                }
+                if (found == match) {
+                    wrapped.remove(i);
                     change = true;
                 }
             }
+            if (change) {
+                modCount++;
+            }
             return change;
         }
 
         @Override
         public void clear() {
+            checkWritable();
             for (int i = wrapped.size() - 1; i >= 0; --i) {
                 wrapped.remove(i);
             }
+            modCount++;
         }
 
         @Override
         public Object get(int index) {
-            return unJson(wrapped.get(index));
+            return unJson(wrapped.get(index), readOnly);
         }
 
         @Override
         public Object set(int index, Object element) {
-            return unJson(wrapped.set(index, gson.toJsonTree(element)));
+            checkWritable();
+            return unJson(wrapped.set(index, gson.toJsonTree(element)), readOnly);
         }
 
         @Override
         public void add(int index, Object element) {
+            checkWritable();
+            if (index < 0 || index > wrapped.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + wrapped.size());
+            }
             wrapped.add(JsonNull.INSTANCE);
             for (int i = wrapped.size() - 1; i > index; --i) {
                 wrapped.set(i, wrapped.get(i - 1));
             }
             wrapped.set(index, gson.toJsonTree(element));
+            modCount++;
         }
 
         @Override
         public Object remove(int index) {
-            return unJson(wrapped.remove(index));
+            checkWritable();
+            Object o = unJson(wrapped.remove(index), readOnly);
+            modCount++;
+            return o;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            checkWritable();
+            int size = wrapped.size();
+            int n = toIndex - fromIndex;
+            if (n <= 0) {
+                return;
+            }
+            for (int i = toIndex; i < size; ++i) {
+                wrapped.set(i - n, wrapped.get(i));
+            }
+            for (int i = size - 1; i >= size - n; --i) {
+                wrapped.remove(i);
+            }
+            modCount++;
         }
 
         @Override
         public int indexOf(Object o) {
-            JsonElement e = gson.toJsonTree(o);
+            JsonElement tree = comparable(o);
             int size = wrapped.size();
             for (int i = 0; i < size; ++i) {
-                if (e.equals(wrapped.get(i))) {
+                if (matches(wrapped.get(i), o, tree)) {
                     return i;
                 }
             }
@@ -824,79 +1870,15 @@ public class JsonConfig {
 
         @Override
         public int lastIndexOf(Object o) {
-            JsonElement e = gson.toJsonTree(o);
+            JsonElement tree = comparable(o);
             for (int i = wrapped.size() - 1; i >= 0; --i) {
-                if (e.equals(wrapped.get(i))) {
+                if (matches(wrapped.get(i), o, tree)) {
                     return i;
                 }
             }
             return -1;
         }
 
-        @Override
-        public ListIterator<Object> listIterator() {
-            return listIterator(-1);
-        }
-
-        @Override
-        public ListIterator<Object> listIterator(final int index) {
-            ListIterator<Object> lit = new ListIterator<Object>() {
-
-                int i = index;
-
-                @Override
-                public void set(Object e) {
-                    ListWrapper.this.set(i, e);
-                }
-
-                @Override
-                public void remove() {
-                    ListWrapper.this.remove(i);
-                }
-
-                @Override
-                public int previousIndex() {
-                    return i - 1;
-                }
-
-                @Override
-                public Object previous() {
-                    return ListWrapper.this.get(--i);
-                }
-
-                @Override
-                public int nextIndex() {
-                    return i + 1;
-                }
-
-                @Override
-                public Object next() {
-                    return ListWrapper.this.get(++i);
-                }
-
-                @Override
-                public boolean hasPrevious() {
-                    return i > 0;
-                }
-
-                @Override
-                public boolean hasNext() {
-                    return i < ListWrapper.this.size() - 1;
-                }
-
-                @Override
-                public void add(Object e) {
-                    ListWrapper.this.add(i, e);
-                }
-            };
-            return lit;
-        }
-
-        @Override
-        public List<Object> subList(int fromIndex, int toIndex) {
-            throw new UnsupportedOperationException("Cannot return sub-view of wrapped JsonArray.");
-        }
-
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder("ListWrapper[");
@@ -906,94 +1888,149 @@ public class JsonConfig {
                     sb.append(", ");
                 }
                 comma = true;
-                sb.append(o.toString());
+                sb.append(o);
             }
             sb.append(']');
             return sb.toString();
         }
     }
 
-    private static class JsonAccessor {
+    private interface ChannelWriter {
+
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * A tree that has not been fully built as Gson elements yet.
+     */
+    interface DeferredRoot {
+
+        /**
+         * @return The element at path, building only as much of the tree as
+         * needed to reach it, or null if there is no such element.
+         */
+        JsonElement resolve(JsonAccessor path);
+
+        /**
+         * @return The whole tree, reusing elements already returned by
+         * resolve.
+         */
+        JsonElement materialize();
+
+        /**
+         * Reads the array at path straight into a primitive array without
+         * building elements for it, if the tree can.
+         * @param type int.class, long.class or double.class.
+         * @return The array, or null if there is no array of plain numbers at
+         * path or it has already been built as elements.
+         */
+        Object resolveNumberArray(JsonAccessor path, Class<?> type);
+
+        /**
+         * @return A tree of the object or array at path that shares this
+         * tree's storage, or null if there is none or this tree can not
+         * share it.
+         */
+        DeferredRoot subtree(JsonAccessor path);
+    }
+
+    static final class JsonAccessor {
+
+        final String[] keys;
+        final int[] indices;
+
+        JsonAccessor(String[] keys, int[] indices) {
+            this.keys = keys;
+            this.indices = indices;
+        }
 
-        private final List<BiFunction<JsonElement, Object, JsonElement>> accessList;
-        private final List<Object> args;
+        int length() {
+            return keys.length;
+        }
 
-        public JsonAccessor(List<BiFunction<JsonElement, Object, JsonElement>> accessList, List<Object> args) {
-            this.accessList = new ArrayList(accessList);
-            this.args = new ArrayList(args);
+        /**
+         * @return The accessor for the first len steps of this one.
+         */
+        JsonAccessor prefix(int len) {
+            return len == keys.length ? this : new JsonAccessor(Arrays.copyOf(keys, len), Arrays.copyOf(indices, len));
         }
 
         public JsonElement get(JsonElement root) {
-            for (int i = 0; i < args.size() && root != null; ++i) {
-                root = accessList.get(i).apply(root, args.get(i));
+            for (int i = 0; i < keys.length && root != null; ++i) {
+                root = step(root, i);
             }
             return root;
         }
 
+        /**
+         * @return The child of e selected by step i, or null if e has no
+         * such child.
+         */
+        JsonElement step(JsonElement e, int i) {
+            String key = keys[i];
+            if (key != null) {
+                return e instanceof JsonObject ? ((JsonObject) e).get(key) : null;
+            }
+            if (e instanceof JsonArray) {
+                JsonArray arr = (JsonArray) e;
+                int index = indices[i];
+                return index < arr.size() ? arr.get(index) : null;
+            }
+            return null;
+        }
+
         public void set(JsonElement root, JsonElement value) {
-            JsonElement last = null;
-            Object lastArg = null;
-            BiFunction<JsonElement, Object, JsonElement> lastAccessor = null;
-            for (int i = 0; i < args.size(); ++i) {
-                BiFunction<JsonElement, Object, JsonElement> accessor = accessList.get(i);
-
-                // Ensure type of root, set last's value if needed.
-                if (accessor == MAP_FUNC && !(root instanceof JsonObject)) {
-                    if (last == null) {
-                        return;
-                    } else if (last instanceof JsonArray) {
-                        JsonArray lastArr = last.getAsJsonArray();
-                        while (lastArr.size() < (Integer) lastArg + 1) {
-                            lastArr.add(JsonNull.INSTANCE);
-                        }
-                        lastArr.set((Integer) lastArg, root = new JsonObject());
-                    } else if (last instanceof JsonObject) {
-                        last.getAsJsonObject().add((String) lastArg, root = new JsonObject());
-                    }
-                } else if (accessor == ARRAY_FUNC && !(root instanceof JsonArray)) {
-                    if (last == null) {
+            JsonElement parent = null;
+            for (int i = 0; i < keys.length; ++i) {
+                // Ensure type of root, replace it in parent if needed.
+                if (keys[i] != null ? !(root instanceof JsonObject) : !(root instanceof JsonArray)) {
+                    if (parent == null) {
                         return;
-                    } else if (last instanceof JsonArray) {
-                        JsonArray lastArr = last.getAsJsonArray();
-                        while (lastArr.size() < (Integer) lastArg + 1) {
-                            lastArr.add(JsonNull.INSTANCE);
-                        }
-                        lastArr.set((Integer) lastArg, root = new JsonArray());
-                    } else if (last instanceof JsonObject) {
-                        last.getAsJsonObject().add((String) lastArg, root = new JsonArray());
                     }
+                    root = keys[i] != null ? new JsonObject() : new JsonArray();
+                    put(parent, i - 1, root);
                 }
+                parent = root;
+                root = step(root, i);
+            }
+            if (parent != null) {
+                put(parent, keys.length - 1, value);
+            }
+        }
 
-                // set last to current
-                lastArg = args.get(i);
-                last = root;
-                lastAccessor = accessor;
-
-                // ensure json array size
-                if (root instanceof JsonArray) {
-                    JsonArray ja = root.getAsJsonArray();
-                    while (ja.size() < (Integer) lastArg + 1) {
-                        ja.add(JsonNull.INSTANCE);
-                    }
+        /**
+         * Sets the child of parent selected by step i, padding arrays with
+         * nulls as needed.
+         */
+        void put(JsonElement parent, int i, JsonElement child) {
+            if (keys[i] != null) {
+                ((JsonObject) parent).add(keys[i], child);
+            } else {
+                JsonArray arr = (JsonArray) parent;
+                int index = indices[i];
+                while (arr.size() <= index) {
+                    arr.add(JsonNull.INSTANCE);
                 }
-
-                root = accessor.apply(root, args.get(i));
-            }
-            if (lastAccessor == ARRAY_FUNC) {
-                last.getAsJsonArray().set((Integer) lastArg, value);
-            } else if (lastAccessor == MAP_FUNC) {
-                last.getAsJsonObject().add((String) lastArg, value);
+                arr.set(index, child);
             }
         }
 
         @Override
         public String toString() {
-            return "JsonAccessor{" + accessList + "," + args + "}";
+            StringBuilder sb = new StringBuilder("JsonAccessor{");
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != null) {
+                    sb.append("[\"").append(keys[i]).append("\"]");
+                } else {
+                    sb.append('[').append(indices[i]).append(']');
+                }
+            }
+            return sb.append('}').toString();
         }
 
         @Override
         public int hashCode() {
-            return accessList.toString().hashCode() ^ args.toString().hashCode();
+            return Arrays.hashCode(keys) * 31 + Arrays.hashCode(indices);
         }
 
         @Override
@@ -1002,7 +2039,7 @@ public class JsonConfig {
                 return false;
             }
             JsonAccessor ja = (JsonAccessor) o;
-            return accessList.equals(ja.accessList) && args.equals(ja.args);
+            return Arrays.equals(keys, ja.keys) && Arrays.equals(indices, ja.indices);
         }
     }
 }
@@ -0,0 +1,121 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Structural comparison of JSON trees.
+ */
+final class JsonDiff {
+
+    private JsonDiff() {
+    }
+
+    /**
+     * Compares two trees and builds a tree equal to neu that reuses every
+     * subtree of old that did not change. Objects are compared by key
+     * (ignoring member order) and arrays by index.
+     * @param old The current tree.
+     * @param neu The new tree.
+     * @param changes Receives the path of every value that was added,
+     * removed or replaced. Changes below a replaced value are not listed
+     * separately.
+     * @return old if the trees are equal, otherwise a tree equal to neu.
+     */
+    static JsonElement merge(JsonElement old, JsonElement neu, List<JsonConfig.JsonAccessor> changes) {
+        return merge(old, neu, new Path(), changes);
+    }
+
+    private static JsonElement merge(JsonElement old, JsonElement neu, Path path, List<JsonConfig.JsonAccessor> changes) {
+        if (old instanceof JsonObject && neu instanceof JsonObject) {
+            JsonObject o = (JsonObject) old;
+            JsonObject n = (JsonObject) neu;
+            JsonObject merged = new JsonObject();
+            boolean same = o.size() == n.size();
+            for (Map.Entry<String, JsonElement> ent : n.entrySet()) {
+                String key = ent.getKey();
+                JsonElement oc = o.get(key);
+                JsonElement mc;
+                path.push(key, -1);
+                if (oc == null) {
+                    changes.add(path.toAccessor());
+                    mc = ent.getValue();
+                    same = false;
+                } else {
+                    mc = merge(oc, ent.getValue(), path, changes);
+                    same &= mc == oc;
+                }
+                path.pop();
+                merged.add(key, mc);
+            }
+            for (Map.Entry<String, JsonElement> ent : o.entrySet()) {
+                if (!n.has(ent.getKey())) {
+                    path.push(ent.getKey(), -1);
+                    changes.add(path.toAccessor());
+                    path.pop();
+                }
+            }
+            return same ? old : merged;
+        } else if (old instanceof JsonArray && neu instanceof JsonArray) {
+            JsonArray o = (JsonArray) old;
+            JsonArray n = (JsonArray) neu;
+            JsonArray merged = new JsonArray(n.size());
+            boolean same = o.size() == n.size();
+            int common = Math.min(o.size(), n.size());
+            for (int i = 0; i < n.size(); ++i) {
+                path.push(null, i);
+                if (i < common) {
+                    JsonElement oc = o.get(i);
+                    JsonElement mc = merge(oc, n.get(i), path, changes);
+                    same &= mc == oc;
+                    merged.add(mc);
+                } else {
+                    changes.add(path.toAccessor());
+                    merged.add(n.get(i));
+                }
+                path.pop();
+            }
+            for (int i = common; i < o.size(); ++i) {
+                path.push(null, i);
+                changes.add(path.toAccessor());
+                path.pop();
+            }
+            return same ? old : merged;
+        } else if (old.equals(neu)) {
+            return old;
+        }
+        changes.add(path.toAccessor());
+        return neu;
+    }
+
+    /**
+     * The steps from the root to the value currently being compared.
+     */
+    private static final class Path {
+
+        private final List<String> keys = new ArrayList<>();
+        private int[] indices = new int[16];
+
+        void push(String key, int index) {
+            if (keys.size() == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[keys.size()] = index;
+            keys.add(key);
+        }
+
+        void pop() {
+            keys.remove(keys.size() - 1);
+        }
+
+        JsonConfig.JsonAccessor toAccessor() {
+            return new JsonConfig.JsonAccessor(keys.toArray(new String[keys.size()]), Arrays.copyOf(indices, keys.size()));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.caucraft.miscutils;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Splits a stream of JSON documents arriving in a ByteBufferChain into
+ * JsonConfigs. Documents may be separated by newlines (JSON Lines), other
+ * whitespace, or nothing at all, and each must be an object or an array.
+ * <p>
+ * Bytes can be added to the chain in chunks of any size, splitting documents
+ * anywhere. Each call scans only the bytes that arrived since the last call,
+ * keeping the scan's depth and string state for a document that is not
+ * complete yet. Complete documents are parsed straight from the chain's
+ * arrays, the chain is advanced past them, and arrays that have been fully
+ * consumed are removed from the start of the chain.
+ * <p>
+ * A parser is meant for the single thread reading the chain. Other threads
+ * may keep adding to the end of the chain while it runs.
+ */
+public final class JsonFeedParser {
+
+    private final ByteBufferChain chain;
+    /** The array and offset in chain of the next byte to scan. */
+    private int array;
+    private int offset;
+    /** Bytes scanned past the chain's position. */
+    private long scanned;
+    /** Offset from the chain's position of the current document's first byte, or -1 if none has started. */
+    private long docStart;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+
+    public JsonFeedParser(ByteBufferChain chain) {
+        this.chain = chain;
+        reset();
+    }
+
+    /**
+     * Scans the bytes available in the chain for the next complete document
+     * and parses it on the calling thread.
+     * @return The next document, or null if no document is complete yet.
+     * @throws JsonParseException If the next document is malformed, or bytes
+     * other than whitespace appear between documents. The bad document or
+     * byte is consumed, so the following call continues after it.
+     */
+    public JsonConfig next() {
+        List<ByteBuffer> doc = scan();
+        return doc == null ? null : new JsonConfig(parse(doc));
+    }
+
+    /**
+     * Like next, but parses the document on executor. Scanning, which is
+     * much cheaper than parsing, stays on the calling thread, so documents
+     * can be handed to a pool as fast as they arrive. The document's bytes
+     * are shared with the chain, not copied, so the arrays added to the
+     * chain must not be modified afterwards.
+     * @return A future for the next document, or null if no document is
+     * complete yet.
+     */
+    public CompletableFuture<JsonConfig> nextAsync(Executor executor) {
+        final List<ByteBuffer> doc = scan();
+        if (doc == null) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(new Supplier<JsonConfig>() {
+            @Override
+            public JsonConfig get() {
+                return new JsonConfig(parse(doc));
+            }
+        }, executor);
+    }
+
+    /**
+     * Parses every document that is complete in the chain.
+     * @param sink Receives each document in order.
+     * @return The number of documents parsed.
+     */
+    public int drain(Consumer<? super JsonConfig> sink) {
+        int n = 0;
+        JsonConfig c;
+        while ((c = next()) != null) {
+            sink.accept(c);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return True if part of a document has been scanned but not its end.
+     */
+    public boolean isPartial() {
+        return docStart >= 0;
+    }
+
+    /**
+     * Restarts scanning at the chain's current position.
+     */
+    private void reset() {
+        array = chain.getArrayIndex();
+        offset = chain.getByteIndex();
+        scanned = 0;
+        docStart = -1;
+        depth = 0;
+        inString = false;
+        escaped = false;
+    }
+
+    /**
+     * Scans forward from where the last call stopped.
+     * @return The next complete document's bytes, or null if there is none.
+     */
+    private List<ByteBuffer> scan() {
+        chain.lock();
+        try {
+            int arrays = chain.getArrayCount();
+            while (array < arrays) {
+                ByteBuffer buf = chain.getArray(array);
+                int limit = buf.limit();
+                for (int p = offset; p < limit; ++p) {
+                    byte b = buf.get(p);
+                    scanned++;
+                    if (docStart < 0) {
+                        if (b == '{' || b == '[') {
+                            docStart = scanned - 1;
+                            depth = 1;
+                        } else if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                            long at = chain.getIndex() + scanned - 1;
+                            consume(scanned);
+                            throw new JsonParseException("Expected '{' or '[' at offset " + at + ", found " + (char) b);
+                        }
+                    } else if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if ((b == '}' || b == ']') && --depth == 0) {
+                        chain.skip(docStart);
+                        List<ByteBuffer> doc = slices(scanned - docStart);
+                        consume(scanned - docStart);
+                        return doc;
+                    }
+                }
+                array++;
+                offset = 0;
+            }
+            if (docStart < 0 && scanned > 0) {
+                // Only whitespace so far, nothing to keep.
+                consume(scanned);
+            }
+            return null;
+        } finally {
+            chain.unlock();
+        }
+    }
+
+    /**
+     * Advances the chain by n bytes, removes arrays it has fully read, and
+     * resets the scan to the new position. Lock must be held.
+     */
+    private void consume(long n) {
+        chain.skip(n);
+        while (chain.getArrayIndex() > 0 && chain.removeStart()) {
+        }
+        reset();
+    }
+
+    /**
+     * @return Views of the next len bytes of the chain. Lock must be held.
+     */
+    private List<ByteBuffer> slices(long len) {
+        List<ByteBuffer> parts = new ArrayList<>();
+        int ai = chain.getArrayIndex();
+        int off = chain.getByteIndex();
+        while (len > 0) {
+            ByteBuffer buf = chain.getArray(ai++);
+            int n = (int) Math.min(len, buf.limit() - off);
+            buf.position(off).limit(off + n);
+            parts.add(buf.slice());
+            len -= n;
+            off = 0;
+        }
+        return parts;
+    }
+
+    private static JsonElement parse(List<ByteBuffer> doc) {
+        return JsonParser.parseReader(new InputStreamReader(new BuffersInputStream(doc), StandardCharsets.UTF_8));
+    }
+
+    private static final class BuffersInputStream extends InputStream {
+
+        private final List<ByteBuffer> bufs;
+        private int i;
+
+        BuffersInputStream(List<ByteBuffer> bufs) {
+            this.bufs = bufs;
+        }
+
+        private ByteBuffer current() {
+            while (i < bufs.size() && !bufs.get(i).hasRemaining()) {
+                i++;
+            }
+            return i < bufs.size() ? bufs.get(i) : null;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer b = current();
+            return b == null ? -1 : b.get() & 255;
+        }
+
+        @Override
+        public int read(byte[] dst, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer b = current();
+            if (b == null) {
+                return -1;
+            }
+            len = Math.min(len, b.remaining());
+            b.get(dst, off, len);
+            return len;
+        }
+    }
+}
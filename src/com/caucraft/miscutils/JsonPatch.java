@@ -0,0 +1,575 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Applies a JSON Patch (RFC 6902) or JSON Merge Patch (RFC 7386) to a tree
+ * without modifying it. Like ConcurrentJsonConfig.withValue, each object and
+ * array on a path being changed is copied and the rest of the tree is shared.
+ * A container is copied at most once per patch, later operations modify the
+ * copy in place, and the containers on the last operation's path are kept so
+ * an operation on a nearby path starts from where they diverge instead of
+ * from the root. A failing operation throws before anything is published,
+ * so a patch is applied entirely or not at all.
+ * <p>
+ * Values in the patch become part of the new tree without being copied.
+ */
+final class JsonPatch {
+
+    private final JsonElement patch;
+    private final boolean merge;
+    /** The paths of the values replaced by the last call to applyTo. */
+    final List<JsonConfig.JsonAccessor> changes = new ArrayList<>();
+
+    private Set<JsonElement> fresh;
+    private JsonElement root;
+    /** The tokens of the last path walked for a change, and the copied containers along it. */
+    private String[] lastTokens = new String[0];
+    private JsonElement[] lastNodes = new JsonElement[16];
+    /** The number of valid entries in lastNodes, lastNodes[0] being the root. */
+    private int cached;
+
+    private JsonPatch(JsonElement patch, boolean merge) {
+        this.patch = patch;
+        this.merge = merge;
+    }
+
+    /**
+     * @param ops An RFC 6902 patch: an array of operations.
+     */
+    static JsonPatch of(JsonArray ops) {
+        return new JsonPatch(ops, false);
+    }
+
+    /**
+     * @param patch An RFC 7386 merge patch.
+     */
+    static JsonPatch merge(JsonElement patch) {
+        return new JsonPatch(patch, true);
+    }
+
+    /**
+     * @return The patched tree, or root itself if the patch changed nothing.
+     * @throws IllegalArgumentException If the patch is malformed, an
+     * operation's path does not exist, or a test fails. root is unchanged.
+     */
+    JsonElement applyTo(JsonElement root) {
+        this.root = root;
+        this.fresh = Collections.newSetFromMap(new IdentityHashMap<JsonElement, Boolean>());
+        this.cached = 0;
+        changes.clear();
+        if (merge) {
+            JsonElement result = mergePatch(root, patch, new ArrayList<String>(), true);
+            if (!result.isJsonObject() && !result.isJsonArray()) {
+                throw new IllegalArgumentException("Merge patch would replace the root with a primitive");
+            }
+            this.root = result;
+        } else {
+            JsonArray ops = (JsonArray) patch;
+            for (int i = 0; i < ops.size(); ++i) {
+                apply(ops.get(i), i);
+            }
+        }
+        JsonElement result = this.root;
+        this.root = null;
+        this.fresh = null;
+        Arrays.fill(lastNodes, null);
+        return result;
+    }
+
+    private void apply(JsonElement opElement, int i) {
+        if (!(opElement instanceof JsonObject)) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " is not an object");
+        }
+        JsonObject op = (JsonObject) opElement;
+        String name = string(op, "op", i);
+        String path = string(op, "path", i);
+        String[] tokens = parsePointer(path, i);
+        switch (name) {
+            case "add":
+                add(tokens, value(op, i), i);
+                break;
+            case "remove":
+                remove(tokens, i);
+                break;
+            case "replace":
+                if (read(tokens) == null) {
+                    throw fail(i, op, "no value at path");
+                }
+                replace(tokens, value(op, i), i);
+                break;
+            case "move": {
+                String from = string(op, "from", i);
+                String[] fromTokens = parsePointer(from, i);
+                if (from.equals(path)) {
+                    break;
+                }
+                if (isPrefix(fromTokens, tokens)) {
+                    throw fail(i, op, "can not move a value into itself");
+                }
+                JsonElement v = read(fromTokens);
+                if (v == null) {
+                    throw fail(i, op, "no value at from");
+                }
+                remove(fromTokens, i);
+                add(tokens, v, i);
+                break;
+            }
+            case "copy": {
+                JsonElement v = read(parsePointer(string(op, "from", i), i));
+                if (v == null) {
+                    throw fail(i, op, "no value at from");
+                }
+                // The copy may be modified in place by later operations.
+                add(tokens, v.deepCopy(), i);
+                break;
+            }
+            case "test": {
+                JsonElement v = read(tokens);
+                if (v == null || !v.equals(value(op, i))) {
+                    throw fail(i, op, "test failed");
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("JSON Patch operation " + i + " has unknown op: " + name);
+        }
+    }
+
+    private void add(String[] tokens, JsonElement value, int i) {
+        if (tokens.length == 0) {
+            if (!value.isJsonObject() && !value.isJsonArray()) {
+                throw new IllegalArgumentException("JSON Patch operation " + i + " would replace the root with a primitive");
+            }
+            root = value;
+            cached = 0;
+            changes.add(JsonConfig.getAccessor(""));
+            return;
+        }
+        JsonElement parent = mutableParent(tokens, i);
+        String last = tokens[tokens.length - 1];
+        if (parent instanceof JsonObject) {
+            ((JsonObject) parent).add(last, value);
+            changes.add(accessor(tokens, tokens.length));
+        } else {
+            JsonArray arr = (JsonArray) parent;
+            int idx = last.equals("-") ? arr.size() : index(last, arr.size() + 1, i);
+            arr.add(value);
+            for (int j = arr.size() - 1; j > idx; --j) {
+                arr.set(j, arr.get(j - 1));
+            }
+            arr.set(idx, value);
+            // Later elements moved, so the whole array changed.
+            changes.add(accessor(tokens, tokens.length - 1));
+        }
+        cached = tokens.length;
+    }
+
+    private void replace(String[] tokens, JsonElement value, int i) {
+        JsonElement parent = tokens.length == 0 ? null : mutableParent(tokens, i);
+        if (parent instanceof JsonArray) {
+            JsonArray arr = (JsonArray) parent;
+            arr.set(index(tokens[tokens.length - 1], arr.size(), i), value);
+            changes.add(accessor(tokens, tokens.length));
+        } else {
+            // Replacing an object member or the root is the same as adding it.
+            add(tokens, value, i);
+        }
+    }
+
+    private void remove(String[] tokens, int i) {
+        if (tokens.length == 0) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " can not remove the root");
+        }
+        JsonElement parent = mutableParent(tokens, i);
+        String last = tokens[tokens.length - 1];
+        if (parent instanceof JsonObject) {
+            if (((JsonObject) parent).remove(last) == null) {
+                throw new IllegalArgumentException("JSON Patch operation " + i + " failed: no value at " + pointer(tokens));
+            }
+            changes.add(accessor(tokens, tokens.length));
+        } else {
+            JsonArray arr = (JsonArray) parent;
+            arr.remove(index(last, arr.size(), i));
+            changes.add(accessor(tokens, tokens.length - 1));
+        }
+        cached = tokens.length;
+    }
+
+    /**
+     * Walks to the container holding the last token, copying every
+     * container on the way that this patch has not copied already. The walk
+     * starts from the deepest container shared with the previous walk.
+     */
+    private JsonElement mutableParent(String[] tokens, int i) {
+        int depth = tokens.length - 1;
+        int common = 0;
+        while (common < cached - 1 && common < depth && common < lastTokens.length
+                && tokens[common].equals(lastTokens[common])) {
+            common++;
+        }
+        if (lastNodes.length < tokens.length) {
+            lastNodes = Arrays.copyOf(lastNodes, Math.max(tokens.length, lastNodes.length * 2));
+        }
+        if (cached == 0) {
+            root = mutable(root);
+            lastNodes[0] = root;
+        }
+        JsonElement node = lastNodes[common];
+        for (int t = common; t < depth; ++t) {
+            JsonElement child = child(node, tokens[t]);
+            if (!(child instanceof JsonObject) && !(child instanceof JsonArray)) {
+                throw new IllegalArgumentException("JSON Patch operation " + i + " failed: no object or array at "
+                        + pointer(Arrays.copyOf(tokens, t + 1)));
+            }
+            JsonElement copy = mutable(child);
+            if (copy != child) {
+                if (node instanceof JsonObject) {
+                    ((JsonObject) node).add(tokens[t], copy);
+                } else {
+                    ((JsonArray) node).set(Integer.parseInt(tokens[t]), copy);
+                }
+            }
+            lastNodes[t + 1] = copy;
+            node = copy;
+        }
+        if (!(node instanceof JsonObject) && !(node instanceof JsonArray)) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " failed: no object or array at "
+                    + pointer(Arrays.copyOf(tokens, depth)));
+        }
+        lastTokens = tokens;
+        // Only the containers above the one being changed stay valid.
+        cached = depth + 1;
+        return node;
+    }
+
+    private JsonElement mutable(JsonElement e) {
+        if (fresh.contains(e)) {
+            return e;
+        }
+        JsonElement copy;
+        if (e instanceof JsonObject) {
+            copy = ConcurrentJsonConfig.copyOf((JsonObject) e);
+        } else if (e instanceof JsonArray) {
+            copy = ConcurrentJsonConfig.copyOf((JsonArray) e);
+        } else {
+            return e;
+        }
+        fresh.add(copy);
+        return copy;
+    }
+
+    /**
+     * @return The value at tokens in the current tree, or null if there is
+     * none.
+     */
+    private JsonElement read(String[] tokens) {
+        JsonElement e = root;
+        for (int t = 0; t < tokens.length && e != null; ++t) {
+            e = child(e, tokens[t]);
+        }
+        return e;
+    }
+
+    private static JsonElement child(JsonElement e, String token) {
+        if (e instanceof JsonObject) {
+            return ((JsonObject) e).get(token);
+        } else if (e instanceof JsonArray) {
+            JsonArray arr = (JsonArray) e;
+            int idx = parseIndex(token);
+            return idx >= 0 && idx < arr.size() ? arr.get(idx) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return The accessor for the first len tokens, with array steps where
+     * the tree has arrays.
+     */
+    private JsonConfig.JsonAccessor accessor(String[] tokens, int len) {
+        String[] keys = new String[len];
+        int[] indices = new int[len];
+        JsonElement e = root;
+        for (int t = 0; t < len; ++t) {
+            if (e instanceof JsonArray) {
+                indices[t] = tokens[t].equals("-") ? ((JsonArray) e).size() - 1 : parseIndex(tokens[t]);
+            } else {
+                keys[t] = tokens[t];
+                indices[t] = -1;
+            }
+            e = e != null ? child(e, tokens[t]) : null;
+        }
+        return len == 0 ? JsonConfig.getAccessor("") : new JsonConfig.JsonAccessor(keys, indices);
+    }
+
+    /**
+     * Applies a merge patch to target, copying objects only where the patch
+     * changes them.
+     * @param record Whether to record changes, false below a value that has
+     * been recorded as replaced as a whole.
+     * @return The merged value, target itself if nothing changed.
+     */
+    private JsonElement mergePatch(JsonElement target, JsonElement patch, List<String> path, boolean record) {
+        if (!(patch instanceof JsonObject)) {
+            if (patch.equals(target)) {
+                return target;
+            }
+            if (record) {
+                changes.add(objectAccessor(path));
+            }
+            return patch;
+        }
+        JsonObject out = target instanceof JsonObject ? (JsonObject) target : null;
+        boolean copied = false;
+        if (out == null) {
+            out = new JsonObject();
+            copied = true;
+            if (record) {
+                changes.add(objectAccessor(path));
+                record = false;
+            }
+        }
+        for (Map.Entry<String, JsonElement> ent : ((JsonObject) patch).entrySet()) {
+            String key = ent.getKey();
+            JsonElement cur = out.get(key);
+            JsonElement value = ent.getValue();
+            JsonElement next;
+            path.add(key);
+            if (value.isJsonNull()) {
+                next = null;
+                if (cur != null && record) {
+                    changes.add(objectAccessor(path));
+                }
+            } else {
+                next = mergePatch(cur, value, path, record);
+            }
+            path.remove(path.size() - 1);
+            if (next == cur) {
+                continue;
+            }
+            if (!copied) {
+                out = ConcurrentJsonConfig.copyOf(out);
+                copied = true;
+            }
+            if (next == null) {
+                out.remove(key);
+            } else {
+                out.add(key, next);
+            }
+        }
+        return out;
+    }
+
+    private static JsonConfig.JsonAccessor objectAccessor(List<String> path) {
+        if (path.isEmpty()) {
+            return JsonConfig.getAccessor("");
+        }
+        int[] indices = new int[path.size()];
+        Arrays.fill(indices, -1);
+        return new JsonConfig.JsonAccessor(path.toArray(new String[path.size()]), indices);
+    }
+
+    /**
+     * Builds an RFC 6902 patch of add, remove and replace operations that
+     * turns old into neu, in the spirit of JsonDiff.merge. Objects are
+     * compared by key and arrays by index. Subtrees that are the same
+     * instance in both trees are skipped without being compared, so trees
+     * that share structure, such as successive versions of a
+     * ConcurrentJsonConfig, are diffed in time proportional to what changed.
+     * @return The operations, with values copied from neu.
+     */
+    static JsonArray diff(JsonElement old, JsonElement neu) {
+        JsonArray ops = new JsonArray();
+        diff(old, neu, new StringBuilder(), ops);
+        return ops;
+    }
+
+    private static void diff(JsonElement old, JsonElement neu, StringBuilder path, JsonArray ops) {
+        if (old == neu) {
+            return;
+        }
+        int len = path.length();
+        if (old instanceof JsonObject && neu instanceof JsonObject) {
+            JsonObject o = (JsonObject) old;
+            JsonObject n = (JsonObject) neu;
+            for (Map.Entry<String, JsonElement> ent : o.entrySet()) {
+                if (!n.has(ent.getKey())) {
+                    appendToken(path, ent.getKey());
+                    ops.add(op("remove", path, null));
+                    path.setLength(len);
+                }
+            }
+            for (Map.Entry<String, JsonElement> ent : n.entrySet()) {
+                JsonElement oc = o.get(ent.getKey());
+                appendToken(path, ent.getKey());
+                if (oc == null) {
+                    ops.add(op("add", path, ent.getValue()));
+                } else {
+                    diff(oc, ent.getValue(), path, ops);
+                }
+                path.setLength(len);
+            }
+        } else if (old instanceof JsonArray && neu instanceof JsonArray) {
+            JsonArray o = (JsonArray) old;
+            JsonArray n = (JsonArray) neu;
+            int common = Math.min(o.size(), n.size());
+            for (int i = 0; i < common; ++i) {
+                path.append('/').append(i);
+                diff(o.get(i), n.get(i), path, ops);
+                path.setLength(len);
+            }
+            // Removed from the end first so the indices stay valid.
+            for (int i = o.size() - 1; i >= common; --i) {
+                path.append('/').append(i);
+                ops.add(op("remove", path, null));
+                path.setLength(len);
+            }
+            for (int i = common; i < n.size(); ++i) {
+                path.append('/').append(i);
+                ops.add(op("add", path, n.get(i)));
+                path.setLength(len);
+            }
+        } else if (!old.equals(neu)) {
+            ops.add(op("replace", path, neu));
+        }
+    }
+
+    private static JsonObject op(String name, CharSequence path, JsonElement value) {
+        JsonObject op = new JsonObject();
+        op.addProperty("op", name);
+        op.addProperty("path", path.toString());
+        if (value != null) {
+            op.add("value", value.deepCopy());
+        }
+        return op;
+    }
+
+    private static void appendToken(StringBuilder path, String token) {
+        path.append('/');
+        for (int i = 0; i < token.length(); ++i) {
+            char c = token.charAt(i);
+            if (c == '~') {
+                path.append("~0");
+            } else if (c == '/') {
+                path.append("~1");
+            } else {
+                path.append(c);
+            }
+        }
+    }
+
+    private static String pointer(String[] tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (String t : tokens) {
+            appendToken(sb, t);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits an RFC 6901 JSON Pointer into its unescaped tokens.
+     */
+    private static String[] parsePointer(String pointer, int i) {
+        if (pointer.isEmpty()) {
+            return new String[0];
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " has a path not starting with /: " + pointer);
+        }
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int ci = 1; ci <= pointer.length(); ++ci) {
+            char c = ci < pointer.length() ? pointer.charAt(ci) : '/';
+            if (c == '/') {
+                tokens.add(sb.toString());
+                sb.setLength(0);
+            } else if (c == '~') {
+                char e = ++ci < pointer.length() ? pointer.charAt(ci) : ' ';
+                if (e == '0') {
+                    sb.append('~');
+                } else if (e == '1') {
+                    sb.append('/');
+                } else {
+                    throw new IllegalArgumentException("JSON Patch operation " + i + " has a bad escape in path: " + pointer);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * @return token as an array index, or -1 if it is not one.
+     */
+    private static int parseIndex(String token) {
+        int len = token.length();
+        if (len == 0 || len > 10 || (len > 1 && token.charAt(0) == '0')) {
+            return -1;
+        }
+        long v = 0;
+        for (int ci = 0; ci < len; ++ci) {
+            char c = token.charAt(ci);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v <= Integer.MAX_VALUE ? (int) v : -1;
+    }
+
+    /**
+     * @param limit One past the largest index allowed.
+     */
+    private static int index(String token, int limit, int i) {
+        int idx = parseIndex(token);
+        if (idx < 0 || idx >= limit) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " failed: bad array index " + token);
+        }
+        return idx;
+    }
+
+    private static boolean isPrefix(String[] prefix, String[] tokens) {
+        if (prefix.length > tokens.length) {
+            return false;
+        }
+        for (int t = 0; t < prefix.length; ++t) {
+            if (!prefix[t].equals(tokens[t])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String string(JsonObject op, String member, int i) {
+        JsonElement e = op.get(member);
+        if (!(e instanceof JsonPrimitive) || !((JsonPrimitive) e).isString()) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " has no " + member);
+        }
+        return e.getAsString();
+    }
+
+    private static JsonElement value(JsonObject op, int i) {
+        JsonElement e = op.get("value");
+        if (e == null) {
+            throw new IllegalArgumentException("JSON Patch operation " + i + " has no value");
+        }
+        return e;
+    }
+
+    private static IllegalArgumentException fail(int i, JsonObject op, String why) {
+        return new IllegalArgumentException("JSON Patch operation " + i + " (" + op.get("op").getAsString() + " "
+                + op.get("path").getAsString() + ") failed: " + why);
+    }
+}
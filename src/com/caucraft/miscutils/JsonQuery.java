@@ -0,0 +1,532 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A path that can match many elements. Queries use the key syntax of
+ * JsonConfig.get with these additions:
+ * <ul>
+ * <li>{@code *} or {@code [*]} matches every member of an object or element
+ * of an array.</li>
+ * <li>{@code [a:b]} matches the elements of an array from index a up to but
+ * not including b. Either bound may be left out, and negative bounds and
+ * indices count back from the end of the array.</li>
+ * <li>{@code ..name}, {@code ..["name"]} and {@code ..*} match the member
+ * name, or every member and element, at any depth below the current
+ * element.</li>
+ * </ul>
+ * For example, {@code servers[*].port} matches the port of every server and
+ * {@code ..port} every port anywhere in the tree.
+ * <p>
+ * A query is compiled once into its steps and cached, and each evaluation is
+ * a single depth-first walk that yields matches as the stream pulls them, so
+ * a stream that is cut short does not visit the rest of the tree. Matches
+ * come in depth-first order, with a descent's match on an element before the
+ * matches below it. The stream may be made parallel, in which case the walk is split
+ * at the arrays it is iterating over. Queries are immutable and may be shared
+ * between threads and configs.
+ */
+public final class JsonQuery {
+
+    private static final int KEY = 0;
+    private static final int INDEX = 1;
+    private static final int ALL = 2;
+    private static final int SLICE = 3;
+    private static final int DESCEND = 4;
+    /** Marks a slice bound that was left out. */
+    private static final int OPEN = Integer.MIN_VALUE;
+
+    private static final ClockCache<String, JsonQuery> cache = new ClockCache<>(1024);
+
+    private final String query;
+    private final Step[] steps;
+    /** The leading steps that are plain keys and indices, resolved through the config in one lookup. */
+    final JsonConfig.JsonAccessor prefix;
+
+    private JsonQuery(String query, Step[] steps) {
+        this.query = query;
+        this.steps = steps;
+        int n = 0;
+        while (n < steps.length && (steps[n].kind == KEY || steps[n].kind == INDEX && steps[n].from >= 0)) {
+            n++;
+        }
+        String[] keys = new String[n];
+        int[] indices = new int[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = steps[i].kind == KEY ? steps[i].name : null;
+            indices[i] = steps[i].kind == KEY ? -1 : steps[i].from;
+        }
+        this.prefix = n == 0 ? JsonConfig.getAccessor("") : new JsonConfig.JsonAccessor(keys, indices);
+    }
+
+    /**
+     * @return The compiled query, from the cache if it has been compiled
+     * before.
+     * @throws IllegalArgumentException If the query is malformed.
+     */
+    public static JsonQuery compile(String query) {
+        JsonQuery q = cache.get(query);
+        if (q != null) {
+            return q;
+        }
+        return cache.put(query, new JsonQuery(query, parse(query)));
+    }
+
+    /**
+     * @return The cache of compiled queries, for reading its hit/miss/eviction
+     * counts or changing its capacity.
+     */
+    public static ClockCache<String, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return A lazily evaluated stream of the elements below root that match
+     * this query, in depth-first order.
+     */
+    public Stream<JsonElement> stream(JsonElement root) {
+        return stream(root, 0);
+    }
+
+    /**
+     * @param start The element reached by the first step steps of the query.
+     */
+    Stream<JsonElement> stream(JsonElement start, int step) {
+        return StreamSupport.stream(new Matches(steps, start, step), false);
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    /**
+     * Walks from e through the steps from i on for as long as each step leads
+     * to at most one element. Steps that lead to several push a frame over
+     * them onto stack.
+     * @return The element matched at the end of the steps, or null if the
+     * walk ended in a frame or found nothing.
+     */
+    private static JsonElement walk(Step[] steps, JsonElement e, int i, List<Frame> stack) {
+        while (i < steps.length) {
+            Step s = steps[i];
+            switch (s.kind) {
+                case KEY:
+                    e = e instanceof JsonObject ? ((JsonObject) e).get(s.name) : null;
+                    break;
+                case INDEX:
+                    if (e instanceof JsonArray) {
+                        JsonArray arr = (JsonArray) e;
+                        int idx = s.from < 0 ? s.from + arr.size() : s.from;
+                        e = idx >= 0 && idx < arr.size() ? arr.get(idx) : null;
+                    } else {
+                        e = null;
+                    }
+                    break;
+                case ALL:
+                    push(e, i + 1, false, stack);
+                    return null;
+                case SLICE:
+                    if (e instanceof JsonArray) {
+                        JsonArray arr = (JsonArray) e;
+                        int from = bound(s.from, 0, arr.size());
+                        int to = bound(s.to, arr.size(), arr.size());
+                        if (from < to) {
+                            stack.add(new Frame(arr, from, to, i + 1, false));
+                        }
+                    }
+                    return null;
+                case DESCEND:
+                    // Children are searched after the match here, keeping depth-first order.
+                    push(e, i, s.name == null, stack);
+                    if (s.name == null) {
+                        return null;
+                    }
+                    e = e instanceof JsonObject ? ((JsonObject) e).get(s.name) : null;
+                    break;
+            }
+            if (e == null) {
+                return null;
+            }
+            i++;
+        }
+        return e;
+    }
+
+    private static void push(JsonElement e, int step, boolean self, List<Frame> stack) {
+        if (e instanceof JsonArray) {
+            JsonArray arr = (JsonArray) e;
+            if (arr.size() > 0) {
+                stack.add(new Frame(arr, 0, arr.size(), step, self));
+            }
+        } else if (e instanceof JsonObject) {
+            JsonObject obj = (JsonObject) e;
+            if (obj.size() > 0) {
+                stack.add(new Frame(obj, step, self));
+            }
+        }
+    }
+
+    private static int bound(int b, int open, int size) {
+        if (b == OPEN) {
+            return open;
+        }
+        if (b < 0) {
+            b += size;
+        }
+        return b < 0 ? 0 : b > size ? size : b;
+    }
+
+    /**
+     * One array range or object being iterated over, each element of which
+     * continues the walk at step.
+     */
+    private static final class Frame {
+
+        private final JsonArray array;
+        private int next;
+        private final int end;
+        private final Iterator<Map.Entry<String, JsonElement>> members;
+        private int remainingMembers;
+        private final int step;
+        /** For ..*, each element is also matched itself before its children are searched. */
+        private final boolean self;
+
+        Frame(JsonArray array, int next, int end, int step, boolean self) {
+            this.array = array;
+            this.next = next;
+            this.end = end;
+            this.members = null;
+            this.remainingMembers = 0;
+            this.step = step;
+            this.self = self;
+        }
+
+        Frame(JsonObject obj, int step, boolean self) {
+            this.array = null;
+            this.end = 0;
+            this.members = obj.entrySet().iterator();
+            this.remainingMembers = obj.size();
+            this.step = step;
+            this.self = self;
+        }
+
+        boolean hasNext() {
+            return array != null ? next < end : members.hasNext();
+        }
+
+        JsonElement next() {
+            if (array != null) {
+                return array.get(next++);
+            }
+            remainingMembers--;
+            return members.next().getValue();
+        }
+
+        long estimate() {
+            return array != null ? end - next : remainingMembers;
+        }
+    }
+
+    private static final class Matches implements Spliterator<JsonElement> {
+
+        private final Step[] steps;
+        /** The element to start at, or null once the walk has started. */
+        private JsonElement start;
+        private final int startStep;
+        /** A match found while starting the walk that has not been returned yet. */
+        private JsonElement ready;
+        /** Frames still to iterate, the top of the stack at the end. */
+        private List<Frame> stack;
+
+        Matches(Step[] steps, JsonElement start, int startStep) {
+            this.steps = steps;
+            this.start = start;
+            this.startStep = startStep;
+            this.stack = new ArrayList<>();
+        }
+
+        private Matches(Step[] steps, JsonElement ready, List<Frame> stack) {
+            this.steps = steps;
+            this.startStep = 0;
+            this.ready = ready;
+            this.stack = stack;
+        }
+
+        private void begin() {
+            if (start != null) {
+                ready = walk(steps, start, startStep, stack);
+                start = null;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super JsonElement> action) {
+            begin();
+            JsonElement m = ready;
+            ready = null;
+            while (m == null) {
+                int top = stack.size() - 1;
+                if (top < 0) {
+                    return false;
+                }
+                Frame f = stack.get(top);
+                if (!f.hasNext()) {
+                    stack.remove(top);
+                    continue;
+                }
+                JsonElement e = f.next();
+                int i = f.step;
+                if (f.self) {
+                    push(e, i, true, stack);
+                    i++;
+                }
+                m = walk(steps, e, i, stack);
+            }
+            action.accept(m);
+            return true;
+        }
+
+        /**
+         * Splits at the array range nearest the bottom of the stack, which
+         * is the largest piece of the walk left. The prefix takes the first
+         * half of it and every frame above it, this keeps the second half
+         * and the frames below.
+         */
+        @Override
+        public Spliterator<JsonElement> trySplit() {
+            begin();
+            for (int k = 0; k < stack.size(); ++k) {
+                Frame f = stack.get(k);
+                if (f.array == null || f.end - f.next < 2) {
+                    continue;
+                }
+                int mid = (f.next + f.end) >>> 1;
+                List<Frame> prefix = new ArrayList<>(stack.size() - k + 8);
+                prefix.add(new Frame(f.array, f.next, mid, f.step, f.self));
+                prefix.addAll(stack.subList(k + 1, stack.size()));
+                stack.subList(k + 1, stack.size()).clear();
+                f.next = mid;
+                Matches m = new Matches(steps, ready, prefix);
+                ready = null;
+                return m;
+            }
+            return null;
+        }
+
+        /**
+         * @return The number of elements left in the frames being iterated,
+         * which is only a guide to how much of the walk is left.
+         */
+        @Override
+        public long estimateSize() {
+            begin();
+            long n = ready != null ? 1 : 0;
+            for (Frame f : stack) {
+                n += f.estimate();
+            }
+            return n;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    private static final class Step {
+
+        private final int kind;
+        /** The key for KEY, the member searched for by DESCEND or null for any. */
+        private final String name;
+        /** The index for INDEX, the slice's start for SLICE. */
+        private final int from;
+        private final int to;
+
+        Step(int kind, String name, int from, int to) {
+            this.kind = kind;
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static Step[] parse(String query) {
+        List<Step> steps = new ArrayList<>();
+        int len = query.length();
+        int ci = 0;
+        boolean first = true;
+        while (ci < len) {
+            char c = query.charAt(ci);
+            boolean descend = false;
+            if (c == '.' && ci + 1 < len && query.charAt(ci + 1) == '.') {
+                descend = true;
+                ci += 2;
+            } else if (c == '.' && !first) {
+                ci++;
+                if (ci < len && query.charAt(ci) == '[') {
+                    throw new IllegalArgumentException("Unexpected character in query at index " + ci + ": " + query);
+                }
+            } else if (c != '[' && !first) {
+                throw new IllegalArgumentException("Unexpected character in query at index " + ci + ": " + query);
+            }
+            first = false;
+            if (ci >= len) {
+                throw new IllegalArgumentException("Reached end of query while parsing: " + query);
+            }
+            c = query.charAt(ci);
+            if (c == '[') {
+                ci = parseBracket(query, ci + 1, descend, steps);
+            } else if (c == '*') {
+                steps.add(descend ? new Step(DESCEND, null, 0, 0) : new Step(ALL, null, 0, 0));
+                ci++;
+            } else {
+                int end = ci;
+                while (end < len && Character.isJavaIdentifierPart(query.charAt(end))) {
+                    end++;
+                }
+                if (end == ci) {
+                    throw new IllegalArgumentException("Missing identifier in query at index " + ci + ": " + query);
+                }
+                String name = query.substring(ci, end);
+                steps.add(new Step(descend ? DESCEND : KEY, name, 0, 0));
+                ci = end;
+            }
+        }
+        if (first) {
+            throw new IllegalArgumentException("Empty query");
+        }
+        return steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Parses the contents of a bracket starting after the [ at ci.
+     * @return The index after the closing ].
+     */
+    private static int parseBracket(String query, int ci, boolean descend, List<Step> steps) {
+        int len = query.length();
+        if (ci >= len) {
+            throw new IllegalArgumentException("Reached end of query while parsing: " + query);
+        }
+        char c = query.charAt(ci);
+        if (c == '*') {
+            steps.add(descend ? new Step(DESCEND, null, 0, 0) : new Step(ALL, null, 0, 0));
+            ci++;
+        } else if (c == '"') {
+            StringBuilder sb = new StringBuilder();
+            ci = parseString(query, ci + 1, sb);
+            steps.add(new Step(descend ? DESCEND : KEY, sb.toString(), 0, 0));
+        } else {
+            if (descend) {
+                throw new IllegalArgumentException("Expected String or * after .. at index " + ci + ": " + query);
+            }
+            int[] num = new int[1];
+            int from = OPEN;
+            if (c != ':') {
+                ci = parseInt(query, ci, num);
+                from = num[0];
+            }
+            if (ci < len && query.charAt(ci) == ':') {
+                int to = OPEN;
+                ci++;
+                if (ci < len && query.charAt(ci) != ']') {
+                    ci = parseInt(query, ci, num);
+                    to = num[0];
+                }
+                steps.add(new Step(SLICE, null, from, to));
+            } else {
+                steps.add(new Step(INDEX, null, from, 0));
+            }
+        }
+        if (ci >= len || query.charAt(ci) != ']') {
+            throw new IllegalArgumentException("Expected closing bracket at index " + ci + ": " + query);
+        }
+        return ci + 1;
+    }
+
+    /**
+     * Parses an optionally negative integer into out[0].
+     * @return The index after the integer.
+     */
+    private static int parseInt(String query, int ci, int[] out) {
+        int len = query.length();
+        boolean negative = ci < len && query.charAt(ci) == '-';
+        if (negative) {
+            ci++;
+        }
+        int start = ci;
+        int value = 0;
+        while (ci < len && query.charAt(ci) >= '0' && query.charAt(ci) <= '9') {
+            int d = query.charAt(ci) - '0';
+            if (value > (Integer.MAX_VALUE - d) / 10) {
+                throw new IllegalArgumentException("Array index too large at index " + ci + ": " + query);
+            }
+            value = value * 10 + d;
+            ci++;
+        }
+        if (ci == start) {
+            throw new IllegalArgumentException("Expected String, number, slice or * after [ at index " + ci + ": " + query);
+        }
+        out[0] = negative ? -value : value;
+        return ci;
+    }
+
+    /**
+     * Parses a string's contents and closing quote, starting after the
+     * opening quote at ci, with the escapes JsonConfig keys allow.
+     * @return The index after the closing quote.
+     */
+    private static int parseString(String query, int ci, StringBuilder sb) {
+        int len = query.length();
+        while (ci < len) {
+            char c = query.charAt(ci++);
+            if (c == '"') {
+                return ci;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (ci >= len) {
+                break;
+            }
+            c = query.charAt(ci++);
+            switch (c) {
+                case 'u':
+                    if (ci + 4 > len) {
+                        throw new IllegalArgumentException("Reached end of query while parsing unicode escape: " + query);
+                    }
+                    sb.append((char) Integer.parseInt(query.substring(ci, ci + 4), 16));
+                    ci += 4;
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case '\\':
+                case '"':
+                    sb.append(c);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported escape at index " + (ci - 2) + ": " + query);
+            }
+        }
+        throw new IllegalArgumentException("Reached end of query while parsing: " + query);
+    }
+}
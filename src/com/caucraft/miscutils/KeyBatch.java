@@ -0,0 +1,151 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+
+/**
+ * A fixed set of keys compiled for looking up together. The keys' paths are
+ * merged into a prefix tree, so a lookup visits each object or array that
+ * several keys pass through once instead of once per key. Compile a batch
+ * once and pass it to JsonConfig.getAll for lookups that are repeated often.
+ * Batches are immutable and may be shared between threads and configs.
+ */
+public final class KeyBatch {
+
+    private final String[] keys;
+    private final Node root;
+
+    private KeyBatch(String[] keys) {
+        this.keys = keys.clone();
+        Builder rootBuilder = new Builder(JsonConfig.getAccessor(""));
+        for (int k = 0; k < keys.length; ++k) {
+            JsonConfig.JsonAccessor path = JsonConfig.getAccessor(keys[k]);
+            Builder b = rootBuilder;
+            for (int i = 0; i < path.length(); ++i) {
+                b = b.child(path, i);
+            }
+            b.slots.add(k);
+        }
+        this.root = rootBuilder.build();
+    }
+
+    /**
+     * @param keys Keys in the same syntax as JsonConfig.get. The same key
+     * may appear more than once.
+     */
+    public static KeyBatch of(String... keys) {
+        return new KeyBatch(keys);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return The element at each key, in the order the keys were given,
+     * with null for keys that are not present. For a ConcurrentJsonConfig
+     * all elements come from the same version of the tree.
+     */
+    JsonElement[] resolve(JsonConfig config) {
+        JsonElement[] out = new JsonElement[keys.length];
+        JsonConfig.DeferredRoot d = config.deferred;
+        JsonElement r = config.root;
+        if (d == null && r == null) {
+            // A lazy load swapped the tree between the two reads.
+            d = config.deferred;
+        }
+        if (d != null) {
+            resolve(d, root, out);
+        } else {
+            walk(r, root, out);
+        }
+        return out;
+    }
+
+    private static void walk(JsonElement e, Node n, JsonElement[] out) {
+        for (int slot : n.slots) {
+            out[slot] = e;
+        }
+        int step = n.path.length();
+        for (Node c : n.children) {
+            JsonElement ce = c.path.step(e, step);
+            if (ce != null) {
+                walk(ce, c, out);
+            }
+        }
+    }
+
+    /**
+     * Resolves a lazily loaded tree only at the nodes where keys branch or
+     * end, so the deferred root builds only the subtrees the keys need.
+     */
+    private void resolve(JsonConfig.DeferredRoot d, Node n, JsonElement[] out) {
+        if (n.slots.length > 0 || (n != root && n.children.length != 1)) {
+            JsonElement e = d.resolve(n.path);
+            if (e != null) {
+                walk(e, n, out);
+            }
+            return;
+        }
+        for (Node c : n.children) {
+            resolve(d, c, out);
+        }
+    }
+
+    private static final class Node {
+
+        private final JsonConfig.JsonAccessor path;
+        private final int[] slots;
+        private final Node[] children;
+
+        Node(JsonConfig.JsonAccessor path, int[] slots, Node[] children) {
+            this.path = path;
+            this.slots = slots;
+            this.children = children;
+        }
+    }
+
+    private static final class Builder {
+
+        private final JsonConfig.JsonAccessor path;
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<Builder> children = new ArrayList<>();
+
+        Builder(JsonConfig.JsonAccessor path) {
+            this.path = path;
+        }
+
+        /**
+         * @return The child reached by step i of path, created if needed.
+         */
+        Builder child(JsonConfig.JsonAccessor path, int i) {
+            for (Builder c : children) {
+                String key = c.path.keys[i];
+                if (key != null ? key.equals(path.keys[i]) : path.keys[i] == null && c.path.indices[i] == path.indices[i]) {
+                    return c;
+                }
+            }
+            Builder c = new Builder(path.prefix(i + 1));
+            children.add(c);
+            return c;
+        }
+
+        Node build() {
+            int[] s = new int[slots.size()];
+            for (int i = 0; i < s.length; ++i) {
+                s[i] = slots.get(i);
+            }
+            Node[] c = new Node[children.size()];
+            for (int i = 0; i < c.length; ++i) {
+                c[i] = children.get(i).build();
+            }
+            return new Node(path, s, c);
+        }
+    }
+}
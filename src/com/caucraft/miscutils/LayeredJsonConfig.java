@@ -0,0 +1,337 @@
+package com.caucraft.miscutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * A read view that merges several configs, such as built-in defaults, a site
+ * file and runtime overrides, into one. Later layers take priority: where
+ * more than one layer has an object at the same path the objects are merged
+ * member by member, and anything else (a primitive, an array or JSON null)
+ * in a higher layer replaces what the lower layers have there, including
+ * everything below it.
+ * <p>
+ * The merged value at a path is worked out the first time it is read, with
+ * one walk down the path through all the layers at once, and cached, so
+ * later reads of the path cost one lookup however many layers there are.
+ * Up to 4096 paths are cached, and those not read recently are dropped
+ * first. An object is only merged into a new element when more than one
+ * layer has it, otherwise the layer's own element is returned. Each change
+ * to a layer, whether by set, update, reload or load, drops only the cached
+ * values at, above and below the changed path, and notifies this config's
+ * listeners.
+ * <p>
+ * Setting a value sets it on the top layer. Elements returned by get and
+ * getRootElement may belong to a layer and must not be modified, and maps
+ * and lists returned by getAsMap and getAsList are read-only. getSubConfig
+ * returns a detached copy. Layers that were loaded lazily or compactly are
+ * built as Gson trees the first time this view reads them.
+ */
+public class LayeredJsonConfig extends JsonConfig {
+
+    private final MergedRoot merged;
+
+    /**
+     * @param layers The configs to merge, lowest priority first. The layers
+     * stay live: changes to them are seen by this config.
+     */
+    public LayeredJsonConfig(JsonConfig... layers) {
+        this(new MergedRoot(layers.clone()));
+    }
+
+    private LayeredJsonConfig(MergedRoot merged) {
+        super(merged);
+        if (merged.layers.length == 0) {
+            throw new IllegalArgumentException("No layers given");
+        }
+        this.merged = merged;
+        for (JsonConfig layer : merged.layers) {
+            layer.addDependent(this);
+        }
+    }
+
+    public int getLayerCount() {
+        return merged.layers.length;
+    }
+
+    /**
+     * @param i The layer's priority, 0 being the lowest.
+     */
+    public JsonConfig getLayer(int i) {
+        return merged.layers[i];
+    }
+
+    /**
+     * Stops following changes to the layers, so this config can be garbage
+     * collected while they are still in use. Values already cached keep
+     * being returned.
+     */
+    public void close() {
+        for (JsonConfig layer : merged.layers) {
+            layer.removeDependent(this);
+        }
+    }
+
+    /**
+     * Sets the value on the top layer.
+     */
+    @Override
+    public void set(String key, Object value) {
+        merged.layers[merged.layers.length - 1].set(key, value);
+    }
+
+    @Override
+    public JsonConfig getSubConfig(String key) {
+        JsonElement e = get(key);
+        if (e instanceof JsonObject || e instanceof JsonArray) {
+            return new JsonConfig(e.deepCopy());
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> getAsMap(String key) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonObject)) {
+            return null;
+        }
+        return new MapWrapper(e.getAsJsonObject(), true);
+    }
+
+    @Override
+    public List<Object> getAsList(String key) {
+        JsonElement e = get(key);
+        if (!(e instanceof JsonArray)) {
+            return null;
+        }
+        return new ListWrapper(e.getAsJsonArray(), true);
+    }
+
+    @Override
+    protected JsonElement materializedRoot() {
+        return merged.materialize();
+    }
+
+    /**
+     * Layered configs are loaded through their layers.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public boolean load(File file) throws IOException, JsonParseException {
+        throw new UnsupportedOperationException("Load the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public boolean loadLazy(File file) throws IOException, JsonParseException {
+        throw new UnsupportedOperationException("Load the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public boolean loadCompact(File file) throws IOException, JsonParseException {
+        throw new UnsupportedOperationException("Load the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void loadBinary(File file) throws IOException {
+        throw new UnsupportedOperationException("Load the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void watch(File file) throws IOException {
+        throw new UnsupportedOperationException("Watch the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * Patches apply to the merged view's paths, which may not exist in any
+     * one layer, so they are applied to the layers instead.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    boolean patchRoot(JsonPatch patch) {
+        throw new UnsupportedOperationException("Patch the layers of a LayeredJsonConfig instead");
+    }
+
+    /**
+     * Called by a layer after values in it were replaced.
+     */
+    void layerChanged(List<JsonAccessor> paths) {
+        merged.invalidate(paths);
+        changed(paths);
+    }
+
+    /**
+     * The merged tree, resolved and cached one path at a time.
+     */
+    private static final class MergedRoot implements DeferredRoot {
+
+        /** Marks a path cached as having no value. */
+        private static final JsonElement ABSENT = new JsonObject();
+        /** The most paths cached at once. */
+        private static final int CACHE_SIZE = 4096;
+
+        private final JsonConfig[] layers;
+        /** The paths in cache, so a change finds the values it affects by path. */
+        private final PathIndex paths = new PathIndex();
+        private final ClockCache<JsonAccessor, JsonElement> cache;
+        /**
+         * Counts invalidations, so a value worked out during one is not
+         * cached. Changed, like cache and paths, only while holding this.
+         */
+        private volatile long version;
+
+        MergedRoot(JsonConfig[] layers) {
+            this.layers = layers;
+            this.cache = new ClockCache<>(CACHE_SIZE, new Consumer<JsonAccessor>() {
+                @Override
+                public void accept(JsonAccessor path) {
+                    paths.remove(path);
+                }
+            });
+        }
+
+        @Override
+        public JsonElement resolve(JsonAccessor path) {
+            JsonElement e = cache.get(path);
+            if (e != null) {
+                return e == ABSENT ? null : e;
+            }
+            long v = version;
+            e = merge(path);
+            synchronized (this) {
+                // A layer changed while merging, the value may be stale.
+                if (version == v) {
+                    paths.add(path);
+                    cache.put(path, e == null ? ABSENT : e);
+                }
+            }
+            return e;
+        }
+
+        @Override
+        public JsonElement materialize() {
+            return resolve(getAccessor(""));
+        }
+
+        @Override
+        public Object resolveNumberArray(JsonAccessor path, Class<?> type) {
+            return null;
+        }
+
+        @Override
+        public DeferredRoot subtree(JsonAccessor path) {
+            return null;
+        }
+
+        void invalidate(List<JsonAccessor> changes) {
+            synchronized (this) {
+                version++;
+                for (JsonAccessor path : paths.removeAffected(changes)) {
+                    cache.remove(path);
+                }
+            }
+        }
+
+        /**
+         * Walks path through every layer at once. At each step the layers
+         * still reaching the path are kept from the top down, stopping after
+         * the first one whose element is not an object, since that element
+         * hides everything below it.
+         * @return The merged value at path, or null if there is none.
+         */
+        private JsonElement merge(JsonAccessor path) {
+            JsonElement[] live = new JsonElement[layers.length];
+            int count = 0;
+            for (int k = layers.length - 1; k >= 0; --k) {
+                JsonElement e = layers[k].materializedRoot();
+                if (keep(e, count)) {
+                    live[count++] = e;
+                }
+                if (!(e instanceof JsonObject)) {
+                    break;
+                }
+            }
+            for (int i = 0; i < path.length() && count > 0; ++i) {
+                int kept = 0;
+                for (int j = 0; j < count; ++j) {
+                    JsonElement c = path.step(live[j], i);
+                    if (c == null) {
+                        continue;
+                    }
+                    if (keep(c, kept)) {
+                        live[kept++] = c;
+                    }
+                    if (!(c instanceof JsonObject)) {
+                        break;
+                    }
+                }
+                count = kept;
+            }
+            if (count == 0) {
+                return null;
+            }
+            return count == 1 ? live[0] : mergeObjects(live, count);
+        }
+
+        /**
+         * @return True if e should join the count elements kept above it:
+         * objects always do, anything else only if nothing is above it.
+         */
+        private static boolean keep(JsonElement e, int count) {
+            return e != null && (count == 0 || e instanceof JsonObject);
+        }
+
+        /**
+         * Merges objects, highest priority first, into a new object. Members
+         * only one of them has are shared, not copied.
+         */
+        private static JsonObject mergeObjects(JsonElement[] objs, int count) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (int j = count - 1; j >= 0; --j) {
+                for (Map.Entry<String, JsonElement> ent : ((JsonObject) objs[j]).entrySet()) {
+                    keys.add(ent.getKey());
+                }
+            }
+            JsonObject out = new JsonObject();
+            JsonElement[] members = new JsonElement[count];
+            for (String key : keys) {
+                int kept = 0;
+                for (int j = 0; j < count; ++j) {
+                    JsonElement c = ((JsonObject) objs[j]).get(key);
+                    if (c == null) {
+                        continue;
+                    }
+                    if (keep(c, kept)) {
+                        members[kept++] = c;
+                    }
+                    if (!(c instanceof JsonObject)) {
+                        break;
+                    }
+                }
+                out.add(key, kept == 1 ? members[0] : mergeObjects(members, kept));
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.caucraft.miscutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A JSON document that is kept as bytes and only turned into Gson elements
+ * where a path reaches. Objects and arrays are indexed one level at a time
+ * the first time a path goes through them, by scanning their bytes for the
+ * offsets of their members. Subtrees no path has reached stay as offsets
+ * into the buffer. Indexing changes the nodes in place, so lookups are
+ * synchronized.
+ */
+final class LazyJsonRoot implements JsonConfig.DeferredRoot {
+
+    /** Objects with more members than this get a HashMap from key to member. */
+    private static final int MAP_THRESHOLD = 16;
+
+    private final ByteBuffer buf;
+    private final Node root;
+
+    /**
+     * @param buf The document. Only the bytes between its position and limit
+     * are used, and it must not be modified while this root is in use.
+     */
+    LazyJsonRoot(ByteBuffer buf) {
+        this.buf = buf.duplicate();
+        int start = skipWhitespace(buf.position());
+        if (start >= buf.limit() || get(start) != '{') {
+            throw new JsonParseException("Expected JSON object at offset " + start);
+        }
+        int end = skipValue(start);
+        if (skipWhitespace(end) != buf.limit()) {
+            throw new JsonParseException("Unexpected data after JSON object at offset " + end);
+        }
+        this.root = new Node(start, end);
+    }
+
+    @Override
+    public synchronized JsonElement resolve(JsonConfig.JsonAccessor path) {
+        Node n = root;
+        int len = path.length();
+        for (int i = 0; i < len; ++i) {
+            if (n.value != null) {
+                JsonElement e = n.value;
+                for (; i < len && e != null; ++i) {
+                    e = path.step(e, i);
+                }
+                return e;
+            }
+            n = child(n, path.keys[i], path.indices[i]);
+            if (n == null) {
+                return null;
+            }
+        }
+        return materialize(n);
+    }
+
+    @Override
+    public synchronized JsonElement materialize() {
+        return materialize(root);
+    }
+
+    @Override
+    public synchronized Object resolveNumberArray(JsonConfig.JsonAccessor path, Class<?> type) {
+        Node n = root;
+        int len = path.length();
+        for (int i = 0; i < len; ++i) {
+            if (n.value != null) {
+                return null;
+            }
+            n = child(n, path.keys[i], path.indices[i]);
+            if (n == null) {
+                return null;
+            }
+        }
+        if (n.value != null || get(n.start) != '[') {
+            return null;
+        }
+        return parseNumbers(n.start, type);
+    }
+
+    @Override
+    public JsonConfig.DeferredRoot subtree(JsonConfig.JsonAccessor path) {
+        // Nodes are guarded by this root's lock, so they can not be shared.
+        return null;
+    }
+
+    /**
+     * @return The member of n selected by key (or index if key is null), or
+     * null if n has no such member.
+     */
+    private Node child(Node n, String key, int index) {
+        byte type = get(n.start);
+        if (key != null ? type != '{' : type != '[') {
+            return null;
+        }
+        if (n.children == null) {
+            index(n);
+        }
+        int i;
+        if (key == null) {
+            i = index < n.children.length ? index : -1;
+        } else if (n.keyMap != null) {
+            Integer mi = n.keyMap.get(key);
+            i = mi == null ? -1 : mi;
+        } else {
+            i = -1;
+            // Later duplicate keys win, like JsonParser.
+            for (int ki = n.keys.length - 1; ki >= 0; --ki) {
+                if (n.keys[ki].equals(key)) {
+                    i = ki;
+                    break;
+                }
+            }
+        }
+        if (i < 0) {
+            return null;
+        }
+        Node c = n.children[i];
+        if (c == null) {
+            c = n.children[i] = new Node(n.starts[i], n.ends[i]);
+        }
+        return c;
+    }
+
+    private JsonElement materialize(Node n) {
+        if (n.value != null) {
+            return n.value;
+        }
+        if (n.children == null) {
+            n.value = parse(n.start, n.end);
+        } else if (n.keys != null) {
+            JsonObject obj = new JsonObject();
+            for (int i = 0; i < n.keys.length; ++i) {
+                Node c = n.children[i];
+                obj.add(n.keys[i], c != null ? materialize(c) : parse(n.starts[i], n.ends[i]));
+            }
+            n.value = obj;
+        } else {
+            JsonArray arr = new JsonArray(n.children.length);
+            for (int i = 0; i < n.children.length; ++i) {
+                Node c = n.children[i];
+                arr.add(c != null ? materialize(c) : parse(n.starts[i], n.ends[i]));
+            }
+            n.value = arr;
+        }
+        // Materialized subtrees hold their own elements, the index is no
+        // longer needed.
+        n.children = null;
+        n.keys = null;
+        n.keyMap = null;
+        n.starts = null;
+        n.ends = null;
+        return n.value;
+    }
+
+    /**
+     * Records the offsets of every member of n, and the keys if n is an
+     * object.
+     */
+    private void index(Node n) {
+        boolean obj = get(n.start) == '{';
+        byte close = (byte) (obj ? '}' : ']');
+        List<String> keys = obj ? new ArrayList<String>() : null;
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int count = 0;
+        int p = skipWhitespace(n.start + 1);
+        if (get(p) != close) {
+            while (true) {
+                if (obj) {
+                    if (get(p) != '"') {
+                        throw new JsonParseException("Expected object key at offset " + p);
+                    }
+                    int keyEnd = skipString(p);
+                    keys.add(decodeString(p, keyEnd));
+                    p = skipWhitespace(keyEnd);
+                    if (get(p) != ':') {
+                        throw new JsonParseException("Expected ':' at offset " + p);
+                    }
+                    p = skipWhitespace(p + 1);
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = p;
+                p = skipValue(p);
+                ends[count++] = p;
+                p = skipWhitespace(p);
+                byte c = get(p);
+                if (c == ',') {
+                    p = skipWhitespace(p + 1);
+                } else if (c == close) {
+                    break;
+                } else {
+                    throw new JsonParseException("Expected ',' or '" + (char) close + "' at offset " + p);
+                }
+            }
+        }
+        n.starts = Arrays.copyOf(starts, count);
+        n.ends = Arrays.copyOf(ends, count);
+        n.children = new Node[count];
+        if (obj) {
+            n.keys = keys.toArray(new String[count]);
+            if (count > MAP_THRESHOLD) {
+                n.keyMap = new HashMap<>(count * 2);
+                for (int i = 0; i < count; ++i) {
+                    n.keyMap.put(n.keys[i], i);
+                }
+            }
+        }
+    }
+
+    private byte get(int p) {
+        if (p >= buf.limit()) {
+            throw new JsonParseException("Unexpected end of JSON at offset " + p);
+        }
+        return buf.get(p);
+    }
+
+    private int skipWhitespace(int p) {
+        int limit = buf.limit();
+        while (p < limit) {
+            byte c = buf.get(p);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @param p The offset of an opening quote.
+     * @return The offset just after the closing quote.
+     */
+    private int skipString(int p) {
+        p++;
+        while (true) {
+            byte c = get(p++);
+            if (c == '"') {
+                return p;
+            } else if (c == '\\') {
+                p++;
+            }
+        }
+    }
+
+    /**
+     * @param p The offset of the first byte of a value.
+     * @return The offset just after the value.
+     */
+    int skipValue(int p) {
+        byte c = get(p);
+        if (c == '"') {
+            return skipString(p);
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (true) {
+                c = get(p);
+                if (c == '"') {
+                    p = skipString(p);
+                    continue;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return p + 1;
+                    }
+                }
+                p++;
+            }
+        }
+        int limit = buf.limit();
+        while (p < limit) {
+            c = buf.get(p);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Parses an array of plain numbers straight from the bytes.
+     * @param start The offset of the array's opening bracket.
+     * @param type int.class, long.class or double.class.
+     * @return The numbers, or null if the array holds anything else.
+     */
+    private Object parseNumbers(int start, Class<?> type) {
+        boolean integral = type != double.class;
+        long[] longs = integral ? new long[16] : null;
+        double[] doubles = integral ? null : new double[16];
+        int count = 0;
+        int p = skipWhitespace(start + 1);
+        if (get(p) != ']') {
+            while (true) {
+                byte c = get(p);
+                if (c != '-' && (c < '0' || c > '9')) {
+                    return null;
+                }
+                int end = skipValue(p);
+                long v = plainLong(p, end);
+                if (count == (integral ? longs.length : doubles.length)) {
+                    if (integral) {
+                        longs = Arrays.copyOf(longs, count * 2);
+                    } else {
+                        doubles = Arrays.copyOf(doubles, count * 2);
+                    }
+                }
+                if (v != Long.MIN_VALUE) {
+                    if (integral) {
+                        longs[count++] = v;
+                    } else {
+                        doubles[count++] = v;
+                    }
+                } else {
+                    // Fractions, exponents and very long integers.
+                    byte[] bytes = new byte[end - p];
+                    ByteBuffer dup = buf.duplicate();
+                    dup.position(p);
+                    dup.get(bytes);
+                    String s = new String(bytes, StandardCharsets.US_ASCII);
+                    if (!JsonConfig.isNumeric(s)) {
+                        return null;
+                    }
+                    if (integral) {
+                        longs[count++] = new BigDecimal(s).longValue();
+                    } else {
+                        doubles[count++] = Double.parseDouble(s);
+                    }
+                }
+                p = skipWhitespace(end);
+                c = get(p);
+                if (c == ',') {
+                    p = skipWhitespace(p + 1);
+                } else if (c == ']') {
+                    break;
+                } else {
+                    return null;
+                }
+            }
+        }
+        if (type == int.class) {
+            int[] ints = new int[count];
+            for (int i = 0; i < count; ++i) {
+                ints[i] = (int) longs[i];
+            }
+            return ints;
+        }
+        return integral ? Arrays.copyOf(longs, count) : Arrays.copyOf(doubles, count);
+    }
+
+    /**
+     * @return The integer from p to end, or Long.MIN_VALUE if it is not an
+     * integer of at most 18 digits.
+     */
+    private long plainLong(int p, int end) {
+        boolean neg = buf.get(p) == '-';
+        int i = neg ? p + 1 : p;
+        if (i == end || end - i > 18) {
+            return Long.MIN_VALUE;
+        }
+        long v = 0;
+        for (; i < end; ++i) {
+            byte c = buf.get(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return neg ? -v : v;
+    }
+
+    private String decodeString(int start, int end) {
+        boolean escaped = false;
+        for (int p = start + 1; p < end - 1; ++p) {
+            if (buf.get(p) == '\\') {
+                escaped = true;
+                break;
+            }
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(start);
+        dup.get(bytes);
+        if (!escaped) {
+            return new String(bytes, 1, bytes.length - 2, StandardCharsets.UTF_8);
+        }
+        try {
+            return new JsonReader(new StringReader(new String(bytes, StandardCharsets.UTF_8))).nextString();
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    private JsonElement parse(int start, int end) {
+        ByteBuffer slice = buf.duplicate();
+        slice.limit(end).position(start);
+        return JsonParser.parseReader(new InputStreamReader(new BufferInputStream(slice), StandardCharsets.UTF_8));
+    }
+
+    private static final class Node {
+
+        private final int start;
+        private final int end;
+        private JsonElement value;
+        private Node[] children;
+        private String[] keys;
+        private Map<String, Integer> keyMap;
+        private int[] starts;
+        private int[] ends;
+
+        Node(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 255 : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
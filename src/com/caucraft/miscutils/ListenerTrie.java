@@ -0,0 +1,125 @@
+package com.caucraft.miscutils;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Change listeners indexed by path. Each node of the trie is one step of a
+ * JsonAccessor, so the listeners affected by a change are found by walking
+ * the changed path once and then visiting the subtree below it, without
+ * looking at listeners on unrelated paths. Registering and removing are
+ * synchronized, lookups are not.
+ */
+final class ListenerTrie {
+
+    private final Node root = new Node(null, null, JsonConfig.getAccessor(""));
+
+    void add(JsonConfig.JsonAccessor path, Consumer<JsonElement> listener) {
+        synchronized (this) {
+            Node n = root;
+            for (int i = 0; i < path.length(); ++i) {
+                Object step = step(path, i);
+                Node c = n.children.get(step);
+                if (c == null) {
+                    c = new Node(n, step, path.prefix(i + 1));
+                    n.children.put(step, c);
+                }
+                n = c;
+            }
+            n.listeners.add(listener);
+        }
+    }
+
+    boolean remove(JsonConfig.JsonAccessor path, Consumer<JsonElement> listener) {
+        synchronized (this) {
+            Node n = find(path);
+            if (n == null || !n.listeners.remove(listener)) {
+                return false;
+            }
+            // Drop nodes that no longer lead to any listener.
+            while (n.parent != null && n.listeners.isEmpty() && n.children.isEmpty()) {
+                n.parent.children.remove(n.step);
+                n = n.parent;
+            }
+            return true;
+        }
+    }
+
+    boolean isEmpty() {
+        return root.listeners.isEmpty() && root.children.isEmpty();
+    }
+
+    /**
+     * Finds every node with listeners that is on, above or below one of the
+     * changed paths. Each node is returned once no matter how many of the
+     * paths reach it, ancestors before descendants for each path.
+     */
+    Set<Node> collect(Iterable<JsonConfig.JsonAccessor> changes) {
+        Set<Node> hits = new LinkedHashSet<>();
+        for (JsonConfig.JsonAccessor path : changes) {
+            Node n = root;
+            addIfListening(n, hits);
+            for (int i = 0; i < path.length() && n != null; ++i) {
+                n = n.children.get(step(path, i));
+                addIfListening(n, hits);
+            }
+            if (n != null) {
+                for (Node c : n.children.values()) {
+                    addSubtree(c, hits);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private Node find(JsonConfig.JsonAccessor path) {
+        Node n = root;
+        for (int i = 0; i < path.length() && n != null; ++i) {
+            n = n.children.get(step(path, i));
+        }
+        return n;
+    }
+
+    private static void addIfListening(Node n, Set<Node> hits) {
+        if (n != null && !n.listeners.isEmpty()) {
+            hits.add(n);
+        }
+    }
+
+    private static void addSubtree(Node n, Set<Node> hits) {
+        addIfListening(n, hits);
+        for (Node c : n.children.values()) {
+            addSubtree(c, hits);
+        }
+    }
+
+    /**
+     * @return The key of step i, or its boxed index if it is an array step.
+     */
+    static Object step(JsonConfig.JsonAccessor path, int i) {
+        return path.keys[i] != null ? path.keys[i] : Integer.valueOf(path.indices[i]);
+    }
+
+    static final class Node {
+
+        private final Node parent;
+        private final Object step;
+        final JsonConfig.JsonAccessor path;
+        final CopyOnWriteArrayList<Consumer<JsonElement>> listeners;
+        private final Map<Object, Node> children;
+
+        Node(Node parent, Object step, JsonConfig.JsonAccessor path) {
+            this.parent = parent;
+            this.step = step;
+            this.path = path;
+            this.listeners = new CopyOnWriteArrayList<>();
+            this.children = new ConcurrentHashMap<>();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.caucraft.miscutils;
+
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A BufferChain variant for many producer threads and a single consumer
+ * thread. Producers append arrays without locking by swapping themselves in
+ * as the tail of a linked list of arrays, the consumer reads from the head
+ * without locking. Ts added by any one producer are read in the order that
+ * producer added them.
+ * <p>
+ * Only one thread may call the reading methods (get, poll, drainTo, isEmpty)
+ * at a time. Any thread may call addEnd and getRemaining.
+ */
+public class MpscBufferChain<T> {
+	
+	private final AtomicReference<Node<T>> tail;
+	private final LongAdder added;
+	private final AtomicLong consumed;
+	private Node<T> head;
+	private int bindex;
+	
+	@SafeVarargs
+	MpscBufferChain(T[]... chain) {
+		this.head = new Node<>(null);
+		this.tail = new AtomicReference<>(head);
+		this.added = new LongAdder();
+		this.consumed = new AtomicLong();
+		for (T[] ba : chain) {
+			addEnd(ba);
+		}
+	}
+	
+	public void addEnd(T[] ba) {
+		Objects.requireNonNull(ba);
+		if (ba.length == 0) {
+			return;
+		}
+		Node<T> node = new Node<>(ba);
+		added.add(ba.length);
+		Node<T> prev = tail.getAndSet(node);
+		// Between the swap and this store the consumer sees prev as the last
+		// node, so ba (and anything added after it) is not readable yet.
+		prev.next = node;
+	}
+	
+	/**
+	 * @return The next T, or null if there are no readable Ts.
+	 */
+	public T poll() {
+		T[] a = current();
+		if (a == null) {
+			return null;
+		}
+		T v = a[bindex++];
+		consumed.lazySet(consumed.get() + 1);
+		return v;
+	}
+	
+	/**
+	 * @return The next T.
+	 * @throws NoSuchElementException If there are no readable Ts.
+	 */
+	public T get() {
+		T[] a = current();
+		if (a == null) {
+			throw new NoSuchElementException("No readable values in MpscBufferChain");
+		}
+		T v = a[bindex++];
+		consumed.lazySet(consumed.get() + 1);
+		return v;
+	}
+	
+	/**
+	 * Adds up to max readable Ts to the given collection. If the collection
+	 * throws, the Ts it took before throwing are still consumed.
+	 * @param c The collection to add to.
+	 * @param max The maximum number of Ts to drain.
+	 * @return The number of Ts drained.
+	 */
+	public int drainTo(Collection<? super T> c, int max) {
+		int drained = 0;
+		T[] a;
+		try {
+			while (drained < max && (a = current()) != null) {
+				int end = bindex + Math.min(a.length - bindex, max - drained);
+				// Advance per T, so if c throws it keeps the Ts added so far.
+				while (bindex < end) {
+					c.add(a[bindex]);
+					bindex++;
+					drained++;
+				}
+			}
+		} finally {
+			consumed.lazySet(consumed.get() + drained);
+		}
+		return drained;
+	}
+	
+	/**
+	 * @return True if there are no readable Ts. A producer that is in the
+	 * middle of addEnd may make this briefly true even though getRemaining is
+	 * positive.
+	 */
+	public boolean isEmpty() {
+		return current() == null;
+	}
+	
+	/**
+	 * @return The number of Ts read from the buffer so far.
+	 */
+	public long getIndex() {
+		return consumed.get();
+	}
+	
+	/**
+	 * @return The approximate number of Ts added but not yet read. Adds and
+	 * reads that happen while this is called may or may not be counted.
+	 */
+	public long getRemaining() {
+		return Math.max(0, added.sum() - consumed.get());
+	}
+	
+	/**
+	 * @return The array the next T will be read from, moving on to the next
+	 * array if the current one has been fully read, or null if there is no
+	 * readable array.
+	 */
+	private T[] current() {
+		T[] a = head.items;
+		if (a == null || bindex >= a.length) {
+			Node<T> next = head.next;
+			if (next == null) {
+				return null;
+			}
+			head = next;
+			bindex = 0;
+			a = next.items;
+		}
+		return a;
+	}
+	
+	private static final class Node<T> {
+	
+		private final T[] items;
+		private volatile Node<T> next;
+	
+		Node(T[] items) {
+			this.items = items;
+		}
+	}
+}
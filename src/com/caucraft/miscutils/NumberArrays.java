@@ -0,0 +1,78 @@
+package com.caucraft.miscutils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * The primitive arrays converted from one JsonConfig array, cached until
+ * the array's path changes.
+ */
+final class NumberArrays {
+
+    /** The array converted, or null if it came from a lazily loaded tree. */
+    final JsonElement source;
+    private volatile int[] ints;
+    private volatile long[] longs;
+    private volatile double[] doubles;
+
+    NumberArrays(JsonElement source) {
+        this.source = source;
+    }
+
+    Object get(Class<?> type) {
+        return type == int.class ? ints : type == long.class ? longs : doubles;
+    }
+
+    void set(Class<?> type, Object array) {
+        if (type == int.class) {
+            ints = (int[]) array;
+        } else if (type == long.class) {
+            longs = (long[]) array;
+        } else {
+            doubles = (double[]) array;
+        }
+    }
+
+    /**
+     * @param type int.class, long.class or double.class.
+     * @return e as an array of type, or null if e is not an array or has an
+     * element that is not a number or a string holding one.
+     */
+    static Object convert(JsonElement e, Class<?> type) {
+        if (!(e instanceof JsonArray)) {
+            return null;
+        }
+        JsonArray arr = (JsonArray) e;
+        int size = arr.size();
+        if (type == int.class) {
+            int[] a = new int[size];
+            for (int i = 0; i < size; ++i) {
+                Number n = JsonConfig.toNumber(arr.get(i));
+                if (n == null) {
+                    return null;
+                }
+                a[i] = n.intValue();
+            }
+            return a;
+        } else if (type == long.class) {
+            long[] a = new long[size];
+            for (int i = 0; i < size; ++i) {
+                Number n = JsonConfig.toNumber(arr.get(i));
+                if (n == null) {
+                    return null;
+                }
+                a[i] = n.longValue();
+            }
+            return a;
+        }
+        double[] a = new double[size];
+        for (int i = 0; i < size; ++i) {
+            Number n = JsonConfig.toNumber(arr.get(i));
+            if (n == null) {
+                return null;
+            }
+            a[i] = n.doubleValue();
+        }
+        return a;
+    }
+}
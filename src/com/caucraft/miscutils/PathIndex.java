@@ -0,0 +1,142 @@
+package com.caucraft.miscutils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of paths stored one step per node, like ListenerTrie, so the paths
+ * a change affects are found by walking the changed path once and then
+ * visiting the subtree below it. Caches keyed by path keep their keys here
+ * to find the entries to drop. Adding and removing are synchronized,
+ * isEmpty is not.
+ */
+final class PathIndex {
+
+    private final Node root = new Node(null, null, JsonConfig.getAccessor(""));
+    private volatile int size;
+
+    /**
+     * @return True if path was not in the set.
+     */
+    boolean add(JsonConfig.JsonAccessor path) {
+        synchronized (this) {
+            Node n = root;
+            for (int i = 0; i < path.length(); ++i) {
+                Object step = ListenerTrie.step(path, i);
+                Node c = n.children.get(step);
+                if (c == null) {
+                    c = new Node(n, step, path.prefix(i + 1));
+                    n.children.put(step, c);
+                }
+                n = c;
+            }
+            if (n.present) {
+                return false;
+            }
+            n.present = true;
+            size++;
+            return true;
+        }
+    }
+
+    /**
+     * @return True if path was in the set.
+     */
+    boolean remove(JsonConfig.JsonAccessor path) {
+        synchronized (this) {
+            Node n = root;
+            for (int i = 0; i < path.length() && n != null; ++i) {
+                n = n.children.get(ListenerTrie.step(path, i));
+            }
+            if (n == null || !n.present) {
+                return false;
+            }
+            unmark(n);
+            return true;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every path that is on, above or below one of the changed
+     * paths.
+     * @return The paths removed.
+     */
+    List<JsonConfig.JsonAccessor> removeAffected(Iterable<JsonConfig.JsonAccessor> changes) {
+        List<JsonConfig.JsonAccessor> hits = new ArrayList<>();
+        synchronized (this) {
+            for (JsonConfig.JsonAccessor path : changes) {
+                Node n = root;
+                Node last = root;
+                removeIfPresent(n, hits);
+                for (int i = 0; i < path.length() && n != null; ++i) {
+                    n = n.children.get(ListenerTrie.step(path, i));
+                    if (n != null) {
+                        removeIfPresent(n, hits);
+                        last = n;
+                    }
+                }
+                if (n != null) {
+                    for (Node c : n.children.values()) {
+                        removeSubtree(c, hits);
+                    }
+                    n.children.clear();
+                }
+                prune(last);
+            }
+        }
+        return hits;
+    }
+
+    private void removeIfPresent(Node n, List<JsonConfig.JsonAccessor> hits) {
+        if (n.present) {
+            n.present = false;
+            size--;
+            hits.add(n.path);
+        }
+    }
+
+    private void removeSubtree(Node n, List<JsonConfig.JsonAccessor> hits) {
+        removeIfPresent(n, hits);
+        for (Node c : n.children.values()) {
+            removeSubtree(c, hits);
+        }
+    }
+
+    private void unmark(Node n) {
+        n.present = false;
+        size--;
+        prune(n);
+    }
+
+    /**
+     * Drops n and its ancestors while they no longer lead to any path.
+     */
+    private static void prune(Node n) {
+        while (n.parent != null && !n.present && n.children.isEmpty()) {
+            n.parent.children.remove(n.step);
+            n = n.parent;
+        }
+    }
+
+    private static final class Node {
+
+        private final Node parent;
+        private final Object step;
+        private final JsonConfig.JsonAccessor path;
+        private final Map<Object, Node> children;
+        private boolean present;
+
+        Node(Node parent, Object step, JsonConfig.JsonAccessor path) {
+            this.parent = parent;
+            this.step = step;
+            this.path = path;
+            this.children = new HashMap<>();
+        }
+    }
+}
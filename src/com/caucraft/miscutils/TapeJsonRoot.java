@@ -0,0 +1,807 @@
+package com.caucraft.miscutils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A JSON document stored as a tape of longs, in the style of simdjson. Every
+ * value is one or two longs in document order, with its type in the top byte
+ * and an inline payload in the low 56 bits:
+ * <ul>
+ * <li>'{' and '[': the index just past the container's end, so a whole
+ * subtree is skipped in one step, followed by a long holding the number of
+ * members.</li>
+ * <li>'k': an object key, the payload is an index into the key dictionary.
+ * Each key is stored once however often it appears.</li>
+ * <li>'i': an integer that fits in 56 bits, stored inline.</li>
+ * <li>'l' and 'd': a long or a double, stored in the next long.</li>
+ * <li>'s' and 'n': a string, or a number whose text does not survive a round
+ * trip through long or double, stored as an offset into the string pool.</li>
+ * <li>'t', 'f' and 'z': true, false and null.</li>
+ * </ul>
+ * The tape and string pool are buffers so they can be backed by a file.
+ * Lookups navigate the tape directly and build Gson elements only for the
+ * value they return. Nothing here is modified after construction, so any
+ * number of threads may read it without locking.
+ */
+final class TapeJsonRoot implements JsonConfig.DeferredRoot {
+
+    static final int OBJECT = '{';
+    static final int ARRAY = '[';
+    static final int KEY = 'k';
+    static final int INT = 'i';
+    static final int LONG = 'l';
+    static final int DOUBLE = 'd';
+    static final int STRING = 's';
+    static final int NUMBER = 'n';
+    static final int TRUE = 't';
+    static final int FALSE = 'f';
+    static final int NULL = 'z';
+
+    private static final long PAYLOAD = (1L << 56) - 1;
+    /** "JCTP", the first bytes of a binary snapshot. */
+    private static final int MAGIC = 0x4A435450;
+    private static final int VERSION = 1;
+
+    private final LongBuffer tape;
+    private final ByteBuffer strings;
+    private final String[] keys;
+    private final Map<String, Integer> keyIds;
+    /** The tape index of the root container. */
+    private final int start;
+
+    TapeJsonRoot(LongBuffer tape, ByteBuffer strings, String[] keys) {
+        this.tape = tape;
+        this.strings = strings;
+        this.keys = keys;
+        this.keyIds = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; ++i) {
+            keyIds.put(keys[i], i);
+        }
+        this.start = 0;
+        int type = type(0);
+        if (type != OBJECT && type != ARRAY) {
+            throw new JsonParseException("Tape does not start with an object or array");
+        }
+    }
+
+    private TapeJsonRoot(TapeJsonRoot parent, int start) {
+        this.tape = parent.tape;
+        this.strings = parent.strings;
+        this.keys = parent.keys;
+        this.keyIds = parent.keyIds;
+        this.start = start;
+    }
+
+    /**
+     * Builds a tape by streaming through a document, without building a
+     * Gson tree.
+     * @throws JsonParseException If the document is not a JSON object.
+     */
+    static TapeJsonRoot parse(Reader in) throws IOException {
+        Builder b = new Builder();
+        JsonReader reader = new JsonReader(in);
+        reader.setStrictness(Strictness.LENIENT);
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new JsonParseException("Expected JSON object, found " + reader.peek());
+        }
+        b.value(reader);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonParseException("Unexpected data after JSON object");
+        }
+        return b.build();
+    }
+
+    /**
+     * Builds a tape from a Gson tree.
+     */
+    static TapeJsonRoot of(JsonElement root) {
+        Builder b = new Builder();
+        b.element(root);
+        return b.build();
+    }
+
+    /**
+     * @return True if this is a whole document, not a subtree view of one.
+     */
+    boolean isWhole() {
+        return start == 0;
+    }
+
+    /**
+     * Writes this tape as a binary snapshot. The layout, all big-endian, is:
+     * the magic number, the format version, the number of keys, the number
+     * of tape slots and the size of the string pool, as ints; each key as an
+     * int length and UTF-8 bytes; padding to a multiple of 8 bytes; the tape;
+     * and the string pool. Container slots hold tape indices, so a reader
+     * skips sub-objects without reading them.
+     */
+    void write(FileChannel channel) throws IOException {
+        if (!isWhole()) {
+            throw new IllegalStateException("Can not write a subtree view");
+        }
+        byte[][] keyBytes = new byte[keys.length][];
+        int headerSize = 20;
+        for (int i = 0; i < keys.length; ++i) {
+            keyBytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+            headerSize += 4 + keyBytes[i].length;
+        }
+        int tapeStart = (headerSize + 7) & ~7;
+        ByteBuffer header = ByteBuffer.allocate(tapeStart);
+        header.putInt(MAGIC).putInt(VERSION).putInt(keys.length).putInt(tape.limit()).putInt(strings.limit());
+        for (byte[] k : keyBytes) {
+            header.putInt(k.length).put(k);
+        }
+        header.position(0);
+        writeFully(channel, header);
+        ByteBuffer chunk = ByteBuffer.allocate(8 * 8192);
+        LongBuffer src = tape.duplicate();
+        src.position(0);
+        while (src.hasRemaining()) {
+            chunk.clear();
+            LongBuffer dst = chunk.asLongBuffer();
+            int n = Math.min(dst.remaining(), src.remaining());
+            LongBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            dst.put(part);
+            src.position(src.position() + n);
+            chunk.limit(n * 8);
+            writeFully(channel, chunk);
+        }
+        ByteBuffer s = strings.duplicate();
+        s.position(0);
+        writeFully(channel, s);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Reads a binary snapshot written by write. The tape and string pool are
+     * used in place, nothing is copied out of buf, but every slot is checked
+     * once so a damaged snapshot is rejected here instead of failing lookups
+     * later.
+     * @throws IOException If buf does not hold a snapshot, or holds a
+     * truncated or corrupt one.
+     */
+    static TapeJsonRoot read(ByteBuffer buf) throws IOException {
+        buf = buf.duplicate();
+        if (buf.remaining() < 20 || buf.getInt() != MAGIC) {
+            throw new IOException("Not a JsonConfig binary snapshot");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int keyCount = buf.getInt();
+        int slots = buf.getInt();
+        int stringBytes = buf.getInt();
+        if (keyCount < 0 || slots < 2 || stringBytes < 0) {
+            throw new IOException("Corrupt JsonConfig binary snapshot");
+        }
+        if (keyCount > buf.remaining() / 4) {
+            throw new IOException("Corrupt JsonConfig binary snapshot");
+        }
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; ++i) {
+            int len = buf.remaining() < 4 ? -1 : buf.getInt();
+            if (len < 0 || len > buf.remaining()) {
+                throw new IOException("Corrupt JsonConfig binary snapshot");
+            }
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            keys[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int tapeStart = (buf.position() + 7) & ~7;
+        if ((long) tapeStart + slots * 8L + stringBytes > buf.limit()) {
+            throw new IOException("Truncated JsonConfig binary snapshot");
+        }
+        buf.position(tapeStart);
+        ByteBuffer tapeBytes = buf.slice();
+        tapeBytes.limit(slots * 8);
+        buf.position(tapeStart + slots * 8);
+        ByteBuffer strings = buf.slice();
+        strings.limit(stringBytes);
+        LongBuffer tape = tapeBytes.asLongBuffer();
+        if (!isValid(tape, strings, keyCount)) {
+            throw new IOException("Corrupt JsonConfig binary snapshot");
+        }
+        TapeJsonRoot root = new TapeJsonRoot(tape, strings, keys);
+        if (root.keyIds.size() != keyCount) {
+            throw new IOException("Corrupt JsonConfig binary snapshot");
+        }
+        return root;
+    }
+
+    /**
+     * Walks the whole tape once, checking that it is one object or array
+     * whose containers end where their members do, that keys only appear
+     * inside objects and are in the key table, that strings lie within the
+     * string pool and that numbers stored as text are valid. Every later walk
+     * of the tape relies on this.
+     */
+    private static boolean isValid(LongBuffer tape, ByteBuffer strings, int keyCount) {
+        int slots = tape.limit();
+        int type = (int) (tape.get(0) >>> 56);
+        if (type != OBJECT && type != ARRAY) {
+            return false;
+        }
+        // The containers still open: where each ends, how many members it
+        // has left and whether it is an object.
+        int[] ends = new int[16];
+        long[] left = new long[16];
+        boolean[] objects = new boolean[16];
+        int depth = 0;
+        int limit = slots;
+        int p = 0;
+        while (true) {
+            if (p >= limit) {
+                return false;
+            }
+            long slot = tape.get(p);
+            type = (int) (slot >>> 56);
+            int payload = (int) Math.min(slot & PAYLOAD, Integer.MAX_VALUE);
+            switch (type) {
+                case OBJECT:
+                case ARRAY: {
+                    if (p + 1 >= limit || payload < p + 2 || payload > limit) {
+                        return false;
+                    }
+                    long count = tape.get(p + 1);
+                    long room = payload - p - 2;
+                    if (count < 0 || (type == OBJECT ? count * 2 : count) > room) {
+                        return false;
+                    }
+                    if (depth == ends.length) {
+                        ends = Arrays.copyOf(ends, depth * 2);
+                        left = Arrays.copyOf(left, depth * 2);
+                        objects = Arrays.copyOf(objects, depth * 2);
+                    }
+                    ends[depth] = payload;
+                    left[depth] = count;
+                    objects[depth] = type == OBJECT;
+                    depth++;
+                    limit = payload;
+                    p += 2;
+                    break;
+                }
+                case LONG:
+                case DOUBLE:
+                    if (p + 2 > limit) {
+                        return false;
+                    }
+                    p += 2;
+                    break;
+                case STRING:
+                case NUMBER: {
+                    if (payload > strings.limit() - 4) {
+                        return false;
+                    }
+                    int len = strings.getInt(payload);
+                    if (len < 0 || len > strings.limit() - 4 - payload) {
+                        return false;
+                    }
+                    if (type == NUMBER && !isNumberText(string(strings, payload))) {
+                        return false;
+                    }
+                    p++;
+                    break;
+                }
+                case INT:
+                case TRUE:
+                case FALSE:
+                case NULL:
+                    p++;
+                    break;
+                default:
+                    return false;
+            }
+            // Close the containers that are complete, then step past the
+            // key of the next member if it is in an object.
+            while (depth > 0 && left[depth - 1] == 0) {
+                if (p != ends[--depth]) {
+                    return false;
+                }
+                limit = depth > 0 ? ends[depth - 1] : slots;
+            }
+            if (depth == 0) {
+                return p == slots;
+            }
+            left[depth - 1]--;
+            if (objects[depth - 1]) {
+                if (p >= limit) {
+                    return false;
+                }
+                long key = tape.get(p);
+                if ((int) (key >>> 56) != KEY || (key & PAYLOAD) >= keyCount) {
+                    return false;
+                }
+                p++;
+            }
+        }
+    }
+
+    @Override
+    public JsonElement resolve(JsonConfig.JsonAccessor path) {
+        int i = find(path);
+        return i < 0 ? null : build(i);
+    }
+
+    @Override
+    public JsonElement materialize() {
+        return build(start);
+    }
+
+    @Override
+    public Object resolveNumberArray(JsonConfig.JsonAccessor path, Class<?> type) {
+        int i = find(path);
+        if (i < 0 || type(i) != ARRAY) {
+            return null;
+        }
+        int count = (int) tape.get(i + 1);
+        int[] ints = type == int.class ? new int[count] : null;
+        long[] longs = type == long.class ? new long[count] : null;
+        double[] doubles = type == double.class ? new double[count] : null;
+        int p = i + 2;
+        for (int n = 0; n < count; ++n) {
+            Number v = number(p);
+            if (v == null) {
+                return null;
+            }
+            if (ints != null) {
+                ints[n] = v.intValue();
+            } else if (longs != null) {
+                longs[n] = v.longValue();
+            } else {
+                doubles[n] = v.doubleValue();
+            }
+            p = skip(p);
+        }
+        return ints != null ? ints : longs != null ? longs : doubles;
+    }
+
+    @Override
+    public JsonConfig.DeferredRoot subtree(JsonConfig.JsonAccessor path) {
+        int i = find(path);
+        if (i < 0 || (type(i) != OBJECT && type(i) != ARRAY)) {
+            return null;
+        }
+        return i == start ? this : new TapeJsonRoot(this, i);
+    }
+
+    /**
+     * @return The tape index of the value at path, or -1 if there is none.
+     */
+    private int find(JsonConfig.JsonAccessor path) {
+        int i = start;
+        int len = path.length();
+        for (int s = 0; s < len; ++s) {
+            String key = path.keys[s];
+            if (key != null) {
+                if (type(i) != OBJECT) {
+                    return -1;
+                }
+                Integer id = keyIds.get(key);
+                if (id == null) {
+                    return -1;
+                }
+                int end = payloadIndex(i);
+                int found = -1;
+                // Later duplicate keys win, like JsonParser.
+                for (int p = i + 2; p < end; p = skip(p + 1)) {
+                    if ((tape.get(p) & PAYLOAD) == id) {
+                        found = p + 1;
+                    }
+                }
+                if (found < 0) {
+                    return -1;
+                }
+                i = found;
+            } else {
+                if (type(i) != ARRAY) {
+                    return -1;
+                }
+                int index = path.indices[s];
+                if (index >= tape.get(i + 1)) {
+                    return -1;
+                }
+                int p = i + 2;
+                for (int n = 0; n < index; ++n) {
+                    p = skip(p);
+                }
+                i = p;
+            }
+        }
+        return i;
+    }
+
+    private int type(int i) {
+        return (int) (tape.get(i) >>> 56);
+    }
+
+    private int payloadIndex(int i) {
+        return (int) (tape.get(i) & PAYLOAD);
+    }
+
+    /**
+     * @return The index of the value after the one at i.
+     */
+    private int skip(int i) {
+        switch (type(i)) {
+            case OBJECT:
+            case ARRAY:
+                return payloadIndex(i);
+            case LONG:
+            case DOUBLE:
+                return i + 2;
+            default:
+                return i + 1;
+        }
+    }
+
+    /**
+     * @return The number at i, or null if the value at i is not a number.
+     */
+    private Number number(int i) {
+        switch (type(i)) {
+            case INT:
+                return (tape.get(i) << 8) >> 8;
+            case LONG:
+                return tape.get(i + 1);
+            case DOUBLE:
+                return Double.longBitsToDouble(tape.get(i + 1));
+            case NUMBER:
+                return new TextNumber(string(payloadIndex(i)));
+            default:
+                return null;
+        }
+    }
+
+    private String string(int offset) {
+        return string(strings, offset);
+    }
+
+    /**
+     * @return True if s can be kept as a number's text: it is written the
+     * way JSON writes numbers, which Gson checks before writing a number
+     * that is not one of its own types, and BigDecimal can parse it.
+     */
+    static boolean isNumberText(String s) {
+        int len = s.length();
+        int i = 0;
+        if (i < len && s.charAt(i) == '-') {
+            i++;
+        }
+        int intStart = i;
+        while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == intStart || (s.charAt(intStart) == '0' && i - intStart > 1)) {
+            return false;
+        }
+        if (i < len && s.charAt(i) == '.') {
+            int fracStart = ++i;
+            while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == fracStart) {
+                return false;
+            }
+        }
+        return JsonConfig.isNumeric(s);
+    }
+
+    private static String string(ByteBuffer strings, int offset) {
+        int len = strings.getInt(offset);
+        byte[] bytes = new byte[len];
+        ByteBuffer dup = strings.duplicate();
+        dup.position(offset + 4);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private JsonElement build(int i) {
+        int type = type(i);
+        switch (type) {
+            case OBJECT: {
+                JsonObject obj = new JsonObject();
+                int end = payloadIndex(i);
+                for (int p = i + 2; p < end; p = skip(p + 1)) {
+                    obj.add(keys[payloadIndex(p)], build(p + 1));
+                }
+                return obj;
+            }
+            case ARRAY: {
+                int count = (int) tape.get(i + 1);
+                JsonArray arr = new JsonArray(count);
+                int p = i + 2;
+                for (int n = 0; n < count; ++n) {
+                    arr.add(build(p));
+                    p = skip(p);
+                }
+                return arr;
+            }
+            case STRING:
+                return new JsonPrimitive(string(payloadIndex(i)));
+            case TRUE:
+                return new JsonPrimitive(true);
+            case FALSE:
+                return new JsonPrimitive(false);
+            case NULL:
+                return JsonNull.INSTANCE;
+            default:
+                return new JsonPrimitive(number(i));
+        }
+    }
+
+    /**
+     * Appends values to a growing tape.
+     */
+    static final class Builder {
+
+        private long[] tape = new long[1024];
+        private int size;
+        private byte[] strings = new byte[1024];
+        private int stringsSize;
+        private final List<String> keys = new ArrayList<>();
+        private final Map<String, Integer> keyIds = new HashMap<>();
+
+        private void add(int type, long payload) {
+            if (size == tape.length) {
+                tape = Arrays.copyOf(tape, size * 2);
+            }
+            tape[size++] = ((long) type << 56) | (payload & PAYLOAD);
+        }
+
+        private void addRaw(long v) {
+            if (size == tape.length) {
+                tape = Arrays.copyOf(tape, size * 2);
+            }
+            tape[size++] = v;
+        }
+
+        private int addString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            int need = stringsSize + 4 + bytes.length;
+            if (need > strings.length) {
+                strings = Arrays.copyOf(strings, Math.max(need, strings.length * 2));
+            }
+            int offset = stringsSize;
+            ByteBuffer.wrap(strings, offset, 4).putInt(bytes.length);
+            System.arraycopy(bytes, 0, strings, offset + 4, bytes.length);
+            stringsSize = need;
+            return offset;
+        }
+
+        private int keyId(String key) {
+            Integer id = keyIds.get(key);
+            if (id == null) {
+                id = keys.size();
+                keys.add(key);
+                keyIds.put(key, id);
+            }
+            return id;
+        }
+
+        void element(JsonElement e) {
+            if (e instanceof JsonObject) {
+                int at = size;
+                add(OBJECT, 0);
+                addRaw(0);
+                int count = 0;
+                for (Map.Entry<String, JsonElement> ent : ((JsonObject) e).entrySet()) {
+                    add(KEY, keyId(ent.getKey()));
+                    element(ent.getValue());
+                    count++;
+                }
+                tape[at] = ((long) OBJECT << 56) | size;
+                tape[at + 1] = count;
+            } else if (e instanceof JsonArray) {
+                int at = size;
+                add(ARRAY, 0);
+                addRaw(0);
+                JsonArray arr = (JsonArray) e;
+                for (int i = 0; i < arr.size(); ++i) {
+                    element(arr.get(i));
+                }
+                tape[at] = ((long) ARRAY << 56) | size;
+                tape[at + 1] = arr.size();
+            } else if (e instanceof JsonPrimitive) {
+                JsonPrimitive prim = (JsonPrimitive) e;
+                if (prim.isBoolean()) {
+                    add(prim.getAsBoolean() ? TRUE : FALSE, 0);
+                } else if (prim.isNumber()) {
+                    number(prim.getAsString());
+                } else {
+                    add(STRING, addString(prim.getAsString()));
+                }
+            } else {
+                add(NULL, 0);
+            }
+        }
+
+        void value(JsonReader reader) throws IOException {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT: {
+                    int at = size;
+                    add(OBJECT, 0);
+                    addRaw(0);
+                    int count = 0;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        add(KEY, keyId(reader.nextName()));
+                        value(reader);
+                        count++;
+                    }
+                    reader.endObject();
+                    tape[at] = ((long) OBJECT << 56) | size;
+                    tape[at + 1] = count;
+                    break;
+                }
+                case BEGIN_ARRAY: {
+                    int at = size;
+                    add(ARRAY, 0);
+                    addRaw(0);
+                    int count = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        value(reader);
+                        count++;
+                    }
+                    reader.endArray();
+                    tape[at] = ((long) ARRAY << 56) | size;
+                    tape[at + 1] = count;
+                    break;
+                }
+                case STRING:
+                    add(STRING, addString(reader.nextString()));
+                    break;
+                case NUMBER:
+                    number(reader.nextString());
+                    break;
+                case BOOLEAN:
+                    add(reader.nextBoolean() ? TRUE : FALSE, 0);
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    add(NULL, 0);
+                    break;
+                default:
+                    throw new JsonParseException("Unexpected " + reader.peek());
+            }
+        }
+
+        /**
+         * Stores a number inline if it can be turned back into the same
+         * text, otherwise as text, rewritten by BigDecimal if JSON would not
+         * write it that way. Text BigDecimal can not parse, such as NaN or a
+         * huge exponent, is stored as a double.
+         */
+        private void number(String text) {
+            if (isPlainInteger(text)) {
+                long v = Long.parseLong(text);
+                if (v == (v << 8) >> 8) {
+                    add(INT, v);
+                } else {
+                    add(LONG, 0);
+                    addRaw(v);
+                }
+                return;
+            }
+            if (JsonConfig.isNumeric(text)) {
+                double d = Double.parseDouble(text);
+                if (Double.toString(d).equals(text)) {
+                    add(DOUBLE, 0);
+                    addRaw(Double.doubleToRawLongBits(d));
+                    return;
+                }
+                if (!isNumberText(text)) {
+                    text = new BigDecimal(text).toString();
+                }
+            } else {
+                add(DOUBLE, 0);
+                addRaw(Double.doubleToRawLongBits(Double.parseDouble(text)));
+                return;
+            }
+            add(NUMBER, addString(text));
+        }
+
+        /**
+         * @return True if text is an integer of at most 18 digits written
+         * the way Long.toString writes it.
+         */
+        private static boolean isPlainInteger(String text) {
+            int i = text.startsWith("-") ? 1 : 0;
+            int digits = text.length() - i;
+            if (digits < 1 || digits > 18 || (text.charAt(i) == '0' && digits > 1) || text.equals("-0")) {
+                return false;
+            }
+            for (; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        TapeJsonRoot build() {
+            return new TapeJsonRoot(LongBuffer.wrap(Arrays.copyOf(tape, size)),
+                    ByteBuffer.wrap(Arrays.copyOf(strings, stringsSize)),
+                    keys.toArray(new String[keys.size()]));
+        }
+    }
+
+    /**
+     * A number stored as text, kept as that text so it is written back the
+     * way it was read. Only built from text isNumberText accepts.
+     */
+    private static final class TextNumber extends Number {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+
+        TextNumber(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return new BigDecimal(text).intValue();
+        }
+
+        @Override
+        public long longValue() {
+            return new BigDecimal(text).longValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(text);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof TextNumber && ((TextNumber) obj).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}